@@ -0,0 +1,122 @@
+package net.ritzow.news.benchmark;
+
+import j2html.rendering.FlatHtml;
+import j2html.tags.DomContent;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import net.ritzow.news.CompiledTemplate;
+import net.ritzow.news.HtmlSessionState;
+import net.ritzow.news.Translator;
+import org.openjdk.jmh.annotations.*;
+
+import static j2html.TagCreator.*;
+import static net.ritzow.news.PageTemplate.*;
+
+/** Render a page shaped like the front page through named content maps and through compiled templates **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+	@Param({"5", "20"})
+	private int articles;
+
+	private HtmlSessionState state;
+	private DomContent body, header, content;
+	private CompiledTemplate compiledBody, compiledContent;
+	private Writer out;
+
+	@Setup
+	public void setup() {
+		state = new HtmlSessionState(null, Translator.ofProperties(new Properties()), Map.of());
+		body = bodyTemplate();
+		content = contentTemplate();
+		compiledBody = CompiledTemplate.compile(body, "full-content", "time", "heap");
+		compiledContent = CompiledTemplate.compile(content, "header-content", "content");
+		header = each(
+			a().withClass("logo").withHref("/").with(span("Title").withClass("logo-text")),
+			form().withClasses("lang-selector").with(button("English"), button("Español"))
+		);
+		/* Encoded to UTF-8, so encoding is measured too */
+		out = new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public void namedContent() throws IOException {
+		render(dynamic(body, Map.of(
+			"full-content", dynamic(content, Map.of("header-content", header, "content", articles())),
+			"time", rawHtml("January 1, 2000"),
+			"heap", dynamic(state -> text("10 MB"))
+		)));
+	}
+
+	@Benchmark
+	public void compiledTemplate() throws IOException {
+		render(compiledBody.fill(
+			compiledContent.fill(header, articles()),
+			rawHtml("January 1, 2000"),
+			dynamic(state -> text("10 MB"))
+		));
+	}
+
+	private void render(DomContent page) throws IOException {
+		page.render(FlatHtml.into(out).appendUnescapedText("<!DOCTYPE html>"), state);
+		out.flush();
+	}
+
+	private DomContent articles() {
+		return div().withClasses("main-box", "foreground").with(
+			h1("Welcome").withClass("title"),
+			each(IntStream.range(0, articles).<DomContent>mapToObj(article ->
+				a().withClasses("foreground", "article-box").withHref("/article/article-" + article).with(
+					span("Article number " + article),
+					time("January 1, 2000 at 12:00:00 PM UTC")
+				)
+			))
+		);
+	}
+
+	/* Same structure as CommonComponents */
+	private static DomContent bodyTemplate() {
+		return body().withId("top").with(
+			div().withClass("page-centered").with(
+				named("full-content")
+			),
+			footer().withClasses("page-footer").with(
+				span().withClasses("right-footer", "foreground").with(
+					text("Server Time: "),
+					time(named("time")),
+					text(" Heap: "),
+					named("heap")
+				)
+			)
+		);
+	}
+
+	private static DomContent contentTemplate() {
+		return each(
+			nav().withClasses("header", "foreground").with(named("header-content")),
+			div().withClasses("page-body").with(
+				div().withClass("content-left"),
+				mainBox(
+					named("content")
+				),
+				div().withClass("content-right").with(
+					a().withClasses("jump-top", "foreground").withHref("#top").with(
+						rawHtml("Return to top")
+					)
+				)
+			)
+		);
+	}
+}
@@ -4,6 +4,7 @@ module net.ritzow.news {
 	exports net.ritzow.news.database.model;
 	requires java.annotation;
 	requires org.eclipse.jetty.server;
+	requires org.eclipse.jetty.util.ajax;
 	requires org.eclipse.jetty.http2.server;
 	requires org.eclipse.jetty.alpn.server;
 	requires org.eclipse.jetty.http3.server;
@@ -16,9 +17,14 @@ module net.ritzow.news {
 	requires io.permazen.kv;
 	requires io.permazen.coreapi;
 	requires io.permazen.kv.array;
+	requires io.permazen.kv.mvstore;
+	requires com.h2database.mvstore;
 	requires io.permazen.util;
 	requires java.xml;
 	requires org.apache.lucene.core;
+	requires org.apache.lucene.analysis.common;
+	requires org.apache.lucene.highlighter;
+	requires org.apache.lucene.suggest;
 	requires com.google.zxing;
 	requires org.slf4j;
 	requires pngj;
@@ -0,0 +1,129 @@
+package net.ritzow.news;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import net.ritzow.news.database.ContentManager;
+import net.ritzow.news.database.ContentManager.ImportedArticle;
+import org.commonmark.node.Heading;
+import org.commonmark.node.Node;
+import org.commonmark.parser.IncludeSourceSpans;
+import org.commonmark.parser.Parser;
+import org.commonmark.renderer.text.TextContentRenderer;
+import org.eclipse.jetty.util.ajax.JSON;
+
+/**
+ * Bulk loading of articles. Sources are read in batches, each batch is parsed in parallel
+ * and stored in one transaction while the next batch is being parsed.
+ **/
+public class ArticleImport {
+
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final Parser PARSER = Parser.builder().includeSourceSpans(IncludeSourceSpans.BLOCKS).build();
+	private static final TextContentRenderer TEXT = TextContentRenderer.builder().build();
+	private static final JSON JSON = new JSON();
+
+	/**
+	 * Import files named {@code <directory>/<urlname>/<language tag>.md}. An initial level 1 heading is used as the
+	 * title, and the file modification time as the publish time.
+	 * @return The number of revisions imported.
+	 */
+	public static long importDirectory(ContentManager cm, Path directory, int batchSize) throws IOException {
+		List<Path> files;
+		try(var walk = Files.walk(directory, 2)) {
+			files = walk.filter(file -> file.getNameCount() == directory.getNameCount() + 2)
+				.filter(file -> file.getFileName().toString().endsWith(".md"))
+				.sorted()
+				.toList();
+		}
+		return importBatched(cm, files.iterator(), ArticleImport::parseMarkdownFile, batchSize);
+	}
+
+	/**
+	 * Import a file with one JSON object per line with string properties
+	 * {@code urlname}, {@code locale}, {@code title}, {@code markdown} and optionally an ISO-8601 {@code published}.
+	 * @return The number of revisions imported.
+	 */
+	public static long importJsonLines(ContentManager cm, Path file, int batchSize) throws IOException {
+		try(var lines = Files.lines(file, StandardCharsets.UTF_8)) {
+			return importBatched(cm, lines.filter(line -> !line.isBlank()).iterator(), ArticleImport::parseJson, batchSize);
+		}
+	}
+
+	private static <T> long importBatched(ContentManager cm, Iterator<T> source,
+			Function<T, ImportedArticle> parse, int batchSize) {
+		long count = 0;
+		try(var writer = Executors.newSingleThreadExecutor()) {
+			CompletableFuture<Void> stored = CompletableFuture.completedFuture(null);
+			List<T> batch = new ArrayList<>(batchSize);
+			while(source.hasNext()) {
+				batch.add(source.next());
+				if(batch.size() == batchSize || !source.hasNext()) {
+					List<ImportedArticle> parsed = batch.parallelStream().map(parse).toList();
+					/* Keep batches in source order so revisions of an article are added in order */
+					stored.join();
+					stored = CompletableFuture.runAsync(() -> cm.importArticles(parsed), writer);
+					count += parsed.size();
+					batch.clear();
+				}
+			}
+			stored.join();
+		}
+		return count;
+	}
+
+	private static ImportedArticle parseMarkdownFile(Path file) {
+		try {
+			String urlname = file.getParent().getFileName().toString();
+			String name = file.getFileName().toString();
+			Locale locale = Locale.forLanguageTag(name.substring(0, name.length() - ".md".length()));
+			String source = Files.readString(file, StandardCharsets.UTF_8);
+			Instant published = Files.getLastModifiedTime(file).toInstant();
+
+			Node document = PARSER.parse(source);
+			if(document.getFirstChild() instanceof Heading heading && heading.getLevel() == 1) {
+				/* Remove the heading lines so the title isn't shown twice */
+				var spans = heading.getSourceSpans();
+				long headingLines = spans.get(spans.size() - 1).getLineIndex() + 1;
+				return new ImportedArticle(urlname, locale, TEXT.render(heading).strip(),
+					source.lines().skip(headingLines).collect(Collectors.joining("\n")), published);
+			}
+			return new ImportedArticle(urlname, locale, urlname, source, published);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static ImportedArticle parseJson(String line) {
+		if(!(JSON.fromJSON(line) instanceof Map<?, ?> object)) {
+			throw new IllegalArgumentException("Not a JSON object: " + line);
+		}
+		return new ImportedArticle(
+			requireString(object, "urlname"),
+			Locale.forLanguageTag(requireString(object, "locale")),
+			requireString(object, "title"),
+			requireString(object, "markdown"),
+			object.get("published") instanceof String published ? Instant.parse(published) : Instant.now()
+		);
+	}
+
+	private static String requireString(Map<?, ?> object, String name) {
+		if(object.get(name) instanceof String value) {
+			return value;
+		}
+		throw new IllegalArgumentException("Missing string property \"" + name + "\" in " + object);
+	}
+}
@@ -0,0 +1,57 @@
+package net.ritzow.news;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Least recently used HTML, evicted to keep the encoded size of all entries within a limit.
+ * Entries are never invalidated, so keys must identify content that doesn't change.
+ **/
+public final class ByteBoundedCache<K> {
+
+	/**
+	 * @param bytes Encoded HTML currently cached.
+	 */
+	public record Metrics(long hits, long misses, long evictions, int entries, long bytes) {}
+
+	private final long maxBytes;
+	private final Map<K, EncodedHtml> entries;
+	private long bytes, hits, misses, evictions;
+
+	/** @param maxBytes Most encoded HTML kept, not counting per-entry overhead **/
+	public ByteBoundedCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	synchronized Optional<EncodedHtml> get(K key) {
+		var html = entries.get(key);
+		if(html == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return Optional.ofNullable(html);
+	}
+
+	synchronized void put(K key, EncodedHtml html) {
+		/* Too large to cache without evicting everything else */
+		if(html.length() > maxBytes) {
+			return;
+		}
+		var previous = entries.put(key, html);
+		bytes += html.length() - (previous == null ? 0 : previous.length());
+		Iterator<EncodedHtml> eldest = entries.values().iterator();
+		while(bytes > maxBytes) {
+			bytes -= eldest.next().length();
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized Metrics metrics() {
+		return new Metrics(hits, misses, evictions, entries.size(), bytes);
+	}
+}
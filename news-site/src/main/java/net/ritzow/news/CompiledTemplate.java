@@ -0,0 +1,103 @@
+package net.ritzow.news;
+
+import j2html.rendering.FlatHtml;
+import j2html.rendering.HtmlBuilder;
+import j2html.tags.DomContent;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HTML rendered and encoded once with numbered holes, so a request only renders the content that fills the holes.
+ * A {@link PageTemplate#named(String)} element becomes the hole at the position of its name in {@code holes},
+ * and other per-request content in the template is rendered in place for each request.
+ **/
+public final class CompiledTemplate {
+	private final EncodedHtml[] segments;
+	/* Hole number, or -1 to render deferred content */
+	private final int[] slots;
+	private final DomContent[] deferred;
+	private final int holes;
+
+	private CompiledTemplate(EncodedHtml[] segments, int[] slots, DomContent[] deferred, int holes) {
+		this.segments = segments;
+		this.slots = slots;
+		this.deferred = deferred;
+		this.holes = holes;
+	}
+
+	public static CompiledTemplate compile(DomContent template, String... holes) {
+		var compiler = new Compiler(List.of(holes));
+		try {
+			template.render(FlatHtml.into(compiler.html), compiler);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return compiler.finish();
+	}
+
+	/** Content to render with {@code values} in the holes, in the same order as the hole names **/
+	public DomContent fill(DomContent... values) {
+		if(values.length != holes) {
+			throw new IllegalArgumentException("Template has " + holes + " holes but " + values.length + " values given");
+		}
+		return new DomContent() {
+			@Override
+			public <T extends Appendable> T render(HtmlBuilder<T> builder, Object model) throws IOException {
+				if(model instanceof Compiler compiler) {
+					compiler.defer(this);
+					return builder.output();
+				}
+				segments[0].render(builder, model);
+				for(int i = 0; i < slots.length; i++) {
+					int slot = slots[i];
+					(slot == -1 ? deferred[i] : values[slot]).render(builder, model);
+					segments[i + 1].render(builder, model);
+				}
+				return builder.output();
+			}
+		};
+	}
+
+	/** Rendering model while compiling, per-request content leaves a slot instead of rendering **/
+	static final class Compiler {
+		private final List<String> names;
+		private final StringBuilder html = new StringBuilder();
+		private final List<String> segments = new ArrayList<>();
+		private final List<Integer> slots = new ArrayList<>();
+		private final List<DomContent> deferred = new ArrayList<>();
+		private int start;
+
+		private Compiler(List<String> names) {
+			this.names = names;
+		}
+
+		/** Leave the hole for {@code name}, or render it per request if the template doesn't fill it **/
+		void hole(String name, DomContent content) {
+			int hole = names.indexOf(name);
+			slot(hole, hole == -1 ? content : null);
+		}
+
+		void defer(DomContent content) {
+			slot(-1, content);
+		}
+
+		private void slot(int hole, DomContent content) {
+			segments.add(html.substring(start));
+			start = html.length();
+			slots.add(hole);
+			deferred.add(content);
+		}
+
+		private CompiledTemplate finish() {
+			segments.add(html.substring(start));
+			return new CompiledTemplate(
+				segments.stream().map(EncodedHtml::new).toArray(EncodedHtml[]::new),
+				slots.stream().mapToInt(Integer::intValue).toArray(),
+				deferred.toArray(DomContent[]::new),
+				names.size()
+			);
+		}
+	}
+}
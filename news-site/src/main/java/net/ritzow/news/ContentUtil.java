@@ -1,5 +1,6 @@
 package net.ritzow.news;
 
+import java.util.List;
 import java.util.Locale;
 import java.util.random.RandomGenerator;
 import java.util.random.RandomGeneratorFactory;
@@ -42,7 +43,7 @@ public class ContentUtil {
 						locale, title + " " + locale.getDisplayLanguage(locale), ContentUtil.generateGibberish(random, true, length, 6));
 				}
 			}
-			var article = cm.getLatestArticle(url, cm.getArticleLocales(url).stream().findFirst().orElseThrow(), data -> new Object());
+			var article = cm.getLatestArticle(url, List.of(), data -> new Object());
 		}
 	}
 }
@@ -0,0 +1,44 @@
+package net.ritzow.news;
+
+import j2html.rendering.HtmlBuilder;
+import j2html.tags.DomContent;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/** Raw HTML encoded to UTF-8 ahead of time, copied as bytes when rendered into a {@link Utf8Output} **/
+public final class EncodedHtml extends DomContent {
+	/* Null if only kept encoded */
+	private final String html;
+	private final byte[] utf8;
+
+	public EncodedHtml(String html) {
+		this.html = html;
+		this.utf8 = html.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** HTML kept only as {@code utf8}, decoded when rendered into anything other than a {@link Utf8Output} **/
+	public EncodedHtml(byte[] utf8) {
+		this.html = null;
+		this.utf8 = utf8;
+	}
+
+	/** Encoded length in bytes **/
+	public int length() {
+		return utf8.length;
+	}
+
+	@Override
+	public <T extends Appendable> T render(HtmlBuilder<T> builder, Object model) throws IOException {
+		if(builder.output() instanceof Utf8Output out) {
+			out.write(utf8);
+		} else {
+			builder.appendUnescapedText(toString());
+		}
+		return builder.output();
+	}
+
+	@Override
+	public String toString() {
+		return html == null ? new String(utf8, StandardCharsets.UTF_8) : html;
+	}
+}
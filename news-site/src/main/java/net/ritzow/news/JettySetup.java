@@ -1,19 +1,31 @@
 package net.ritzow.news;
 
 import jakarta.servlet.RequestDispatcher;
+import jakarta.servlet.ServletException;
 import jakarta.servlet.SessionTrackingMode;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.time.Duration;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
 import org.eclipse.jetty.http.CookieCompliance;
 import org.eclipse.jetty.http.HttpCompliance;
 import org.eclipse.jetty.http.HttpCookie.SameSite;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.http.UriCompliance;
 import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
 import org.eclipse.jetty.http3.server.HTTP3ServerConnectionFactory;
@@ -30,12 +42,16 @@ import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.server.handler.ErrorHandler;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
 import org.eclipse.jetty.server.handler.RequestLogHandler;
 import org.eclipse.jetty.server.handler.SecuredRedirectHandler;
 import org.eclipse.jetty.server.handler.StatisticsHandler;
 import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import org.eclipse.jetty.server.session.DefaultSessionIdManager;
 import org.eclipse.jetty.server.session.SessionHandler;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.slf4j.Logger;
@@ -50,25 +66,155 @@ public class JettySetup {
 		void accept(Request request) throws IOException;
 	}
 	
+	/**
+	 * How requests are run.
+	 * @param virtualThreads Run request handlers on virtual threads, pool threads still run I/O selection.
+	 * @param minThreads Pool threads kept started.
+	 * @param maxThreads Most pool threads, which limits concurrent requests unless using virtual threads.
+	 * @param maxConcurrentRequests Most requests handled at once, others wait up to {@code maxQueueTime}
+	 * and then get a 503 response. Zero for no limit.
+	 */
+	public record Execution(boolean virtualThreads, int minThreads, int maxThreads, int maxConcurrentRequests, Duration maxQueueTime) {
+		/* QueuedThreadPool defaults */
+		public static final Execution DEFAULT = new Execution(false, 8, 200, 0, Duration.ZERO);
+		
+		public Execution {
+			if(minThreads < 1 || maxThreads < minThreads || maxConcurrentRequests < 0 || maxQueueTime.isNegative()) {
+				throw new IllegalArgumentException("Invalid execution " + minThreads + ".." + maxThreads 
+					+ " threads, " + maxConcurrentRequests + " requests, " + maxQueueTime + " queue time");
+			}
+			if(virtualThreads && !VirtualThreads.areSupported()) {
+				throw new IllegalArgumentException("Virtual threads are not supported by this runtime");
+			}
+		}
+		
+		/** Requests on virtual threads, with at most {@code maxConcurrentRequests} at once **/
+		public static Execution virtual(int maxConcurrentRequests, Duration maxQueueTime) {
+			return new Execution(true, DEFAULT.minThreads(), DEFAULT.maxThreads(), maxConcurrentRequests, maxQueueTime);
+		}
+	}
+	
+	/** TCP ports for plaintext HTTP and for HTTPS, zero to bind any free port **/
+	public record Ports(int http, int https) {
+		public static final Ports DEFAULT = new Ports(80, 443);
+		/* Free ports, such as for tests */
+		public static final Ports ANY = new Ports(0, 0);
+		
+		public Ports {
+			if(http < 0 || http > 0xFFFF || https < 0 || https > 0xFFFF) {
+				throw new IllegalArgumentException("Invalid ports " + http + " and " + https);
+			}
+		}
+	}
+	
+	/**
+	 * HTTP/3 over QUIC on the HTTPS port over UDP, advertised to HTTPS clients with an {@code Alt-Svc} header.
+	 * @param maxStreams Most concurrent requests per QUIC connection.
+	 * @param idleTimeout Time before an idle QUIC connection is closed.
+	 * @param streamIdleTimeout Time before an idle request stream is reset.
+	 * @param advertiseAge How long clients remember that HTTP/3 is available.
+	 */
+	public record Http3(boolean enabled, int maxStreams, Duration idleTimeout, Duration streamIdleTimeout, Duration advertiseAge) {
+		public static final Http3 DISABLED = new Http3(false, 0, Duration.ZERO, Duration.ZERO, Duration.ZERO);
+		/* Short idle timeouts since lossy mobile connections reconnect cheaply with 0-RTT */
+		public static final Http3 DEFAULT = new Http3(true, 128, Duration.ofSeconds(30), Duration.ofSeconds(15), Duration.ofHours(1));
+		
+		public Http3 {
+			if(enabled && (maxStreams < 1 || !idleTimeout.isPositive() 
+					|| !streamIdleTimeout.isPositive() || advertiseAge.isNegative())) {
+				throw new IllegalArgumentException("Invalid HTTP/3 " + maxStreams + " streams, " + idleTimeout 
+					+ " idle, " + streamIdleTimeout + " stream idle, " + advertiseAge + " advertised");
+			}
+		}
+	}
+	
+	/**
+	 * @param threads Pool threads, not counting virtual threads.
+	 * @param queued Jobs waiting for a pool thread.
+	 * @param limited Requests waiting for the concurrency limit.
+	 * @param rejected Requests that waited too long for the concurrency limit.
+	 */
+	public record ServerMetrics(boolean virtualThreads, int threads, int idleThreads, int busyThreads, int maxThreads,
+		int queued, int activeRequests, int maxActiveRequests, int limited, long rejected, int requests,
+		Duration meanRequestTime, Duration maxRequestTime) {}
+	
+	public static ServerMetrics metrics(Server server) {
+		var pool = (QueuedThreadPool)server.getThreadPool();
+		var stats = server.getChildHandlerByClass(StatisticsHandler.class);
+		var limit = server.getChildHandlerByClass(ConcurrencyLimitHandler.class);
+		return new ServerMetrics(
+			pool.isUseVirtualThreads(),
+			pool.getThreads(),
+			pool.getIdleThreads(),
+			pool.getBusyThreads(),
+			pool.getMaxThreads(),
+			pool.getQueueSize(),
+			stats.getRequestsActive(),
+			stats.getRequestsActiveMax(),
+			limit == null ? 0 : limit.permits.getQueueLength(),
+			limit == null ? 0 : limit.rejected.sum(),
+			stats.getRequests(),
+			Duration.ofNanos(Math.round(stats.getRequestTimeMean() * 1_000_000)),
+			Duration.ofMillis(stats.getRequestTimeMax())
+		);
+	}
+	
 	public static Server newStandardServer(
 			boolean requireSni, 
 			KeyStore keyStore, 
 			String keyStorePassword, 
+			Execution execution,
+			Ports ports,
+			Http3 http3,
+			Path keyStoreDir,
 			RequestConsumer mainHandler, 
 			RequestConsumer errorHandler, 
 			InetAddress... bind) {
 		
-		QueuedThreadPool pool = new QueuedThreadPool();
+		QueuedThreadPool pool = new QueuedThreadPool(execution.maxThreads(), execution.minThreads());
 		pool.setName("http");
+		pool.setUseVirtualThreads(execution.virtualThreads());
 		Server server = new Server(pool);
 		
+		if(http3.enabled() && ports.https() == 0) {
+			throw new IllegalArgumentException("HTTP/3 is advertised on a fixed HTTPS port");
+		}
+		
 		var sslContextFactory = sslContext(keyStore, keyStorePassword);
+		if(http3.enabled()) {
+			Path keyFile = keyStoreFile(keyStore, keyStorePassword, keyStoreDir);
+			sslContextFactory.setKeyStoreResource(Resource.newResource(keyFile));
+			/* The QUIC connectors have read the file once the server has started, or failed to */
+			server.addEventListener(new LifeCycle.Listener() {
+				@Override
+				public void lifeCycleStarted(LifeCycle event) {
+					deleteKeyStoreFile(keyFile);
+				}
+				
+				@Override
+				public void lifeCycleFailure(LifeCycle event, Throwable cause) {
+					deleteKeyStoreFile(keyFile);
+				}
+			});
+		}
 		
 		for(var addr : bind) {
-			server.addConnector(httpPlaintextConnector(server, addr, httpConfig(requireSni)));
-			server.addConnector(httpSslConnector(server, addr, httpConfig(requireSni), sslContextFactory));
-			//server.addConnector(new HTTP3ServerConnector(server, sslContextFactory, new HTTP3ServerConnectionFactory(httpConfig(requireSni))));
-			//server.addConnector(http3Connector(server, addr, httpConfig(requireSni), sslContextFactory));
+			var secure = httpSslConnector(server, addr, ports.https(), httpConfig(requireSni, ports, http3), sslContextFactory);
+			var plaintext = httpPlaintextConnector(server, addr, ports.http(), httpConfig(requireSni, ports, http3));
+			/* Redirect to the port the secure connector bound, only known once it has started if it is zero */
+			secure.addEventListener(new LifeCycle.Listener() {
+				@Override
+				public void lifeCycleStarted(LifeCycle event) {
+					setSecurePort(plaintext, secure.getLocalPort());
+					setSecurePort(secure, secure.getLocalPort());
+				}
+			});
+			/* Started in order, so the secure port is known before plaintext requests are accepted */
+			server.addConnector(secure);
+			server.addConnector(plaintext);
+			if(http3.enabled()) {
+				server.addConnector(http3Connector(server, addr, ports.https(), httpConfig(requireSni, ports, http3), sslContextFactory, http3));
+			}
 		}
 
 		var onError = new ErrorHandler() {
@@ -84,20 +230,27 @@ public class JettySetup {
 		};
 		
 		server.setErrorHandler(onError);
-		server.setHandler(setupHandlers(server, new SuperHandler(mainHandler)));
+		server.setHandler(setupHandlers(server, execution, new SuperHandler(mainHandler)));
 		server.setStopAtShutdown(true);
 		/*server.addBean(new MBeanContainer(ManagementFactory.getPlatformMBeanServer()));*/
 		return server;
 	}
 	
-	private static Handler setupHandlers(Server server, Handler userHandler) {
+	private static Handler setupHandlers(Server server, Execution execution, Handler userHandler) {
 		GzipHandler gzipHandler = new GzipHandler();
 		gzipHandler.setHandler(setupSessionInfrastructure(server, userHandler));
 		SecuredRedirectHandler secureHandler = new SecuredRedirectHandler();
 		secureHandler.setHandler(gzipHandler);
 		RequestLogHandler logHandler = new RequestLogHandler();
-		logHandler.setHandler(secureHandler);
 		logHandler.setRequestLog(JettySetup::log);
+		/* Inside the request log, so requests rejected under load are logged */
+		if(execution.maxConcurrentRequests() > 0) {
+			var limitHandler = new ConcurrencyLimitHandler(execution.maxConcurrentRequests(), execution.maxQueueTime());
+			limitHandler.setHandler(secureHandler);
+			logHandler.setHandler(limitHandler);
+		} else {
+			logHandler.setHandler(secureHandler);
+		}
 		StatisticsHandler statsHandler = new StatisticsHandler();
 		statsHandler.setHandler(logHandler);
 		return statsHandler;
@@ -130,41 +283,58 @@ public class JettySetup {
 		return handler;
 	}
 	
-	private static ServerConnector httpPlaintextConnector(Server server, InetAddress bind, HttpConfiguration config) {
+	/** Port of the first plaintext or secure connector, once started **/
+	public static int localPort(Server server, boolean secure) {
+		for(var connector : server.getConnectors()) {
+			if(connector instanceof ServerConnector tcp && (tcp.getConnectionFactory(SslConnectionFactory.class) != null) == secure) {
+				return tcp.getLocalPort();
+			}
+		}
+		throw new IllegalStateException("No " + (secure ? "secure" : "plaintext") + " connector");
+	}
+	
+	private static void setSecurePort(ServerConnector connector, int port) {
+		for(var factory : connector.getConnectionFactories()) {
+			if(factory instanceof HttpConfiguration.ConnectionFactory http) {
+				http.getHttpConfiguration().setSecurePort(port);
+			}
+		}
+	}
+	
+	private static ServerConnector httpPlaintextConnector(Server server, InetAddress bind, int port, HttpConfiguration config) {
 		var http1 = new HttpConnectionFactory(new HttpConfiguration(config));
 		
 		@SuppressWarnings("all") var http11Insecure = new ServerConnector(server, http1);
 		
-		setCommonProperties(http11Insecure, bind, 80);
+		setCommonProperties(http11Insecure, bind, port);
 		return http11Insecure;
 	}
 	
-	private static ServerConnector httpSslConnector(Server server, InetAddress bind, 
+	private static ServerConnector httpSslConnector(Server server, InetAddress bind, int port,
 		HttpConfiguration config, SslContextFactory.Server sslContext) {
 		var http1 = new HttpConnectionFactory(new HttpConfiguration(config));
 		var http2 = new HTTP2ServerConnectionFactory(new HttpConfiguration(config));
-		//var http3 = new HTTP3ServerConnectionFactory(config);
-		var alpn = new ALPNServerConnectionFactory("h3", "h2", "http/1.1");
-		//alpn.setDefaultProtocol("h3");
-		//alpn.setDefaultProtocol("http/1.1");
-		//alpn.setDefaultProtocol("h2");
+		/* HTTP/3 is only negotiated over QUIC, clients find it through Alt-Svc */
+		var alpn = new ALPNServerConnectionFactory("h2", "http/1.1");
+		alpn.setDefaultProtocol("http/1.1");
 		var ssl = new SslConnectionFactory(sslContext, alpn.getProtocol());
 		/* Handlers are found using string lookups in the ConnectionFactory list of the ServerConnector */
-		@SuppressWarnings("all") var httpSecure = new ServerConnector(server, ssl, alpn, /*http3,*/ http2, http1);
-		setCommonProperties(httpSecure, bind, 443);
+		@SuppressWarnings("all") var httpSecure = new ServerConnector(server, ssl, alpn, http2, http1);
+		setCommonProperties(httpSecure, bind, port);
 		return httpSecure;
 	}
 	
-	private static Connector http3Connector(Server server, InetAddress bind,
-		HttpConfiguration config, SslContextFactory.Server sslContextFactory) {
+	/** Shares {@code sslContextFactory} with the TCP connectors, so both serve the same certificates **/
+	private static Connector http3Connector(Server server, InetAddress bind, int port,
+		HttpConfiguration config, SslContextFactory.Server sslContextFactory, Http3 settings) {
 		HTTP3ServerConnectionFactory http3 = new HTTP3ServerConnectionFactory(config);
-		//http3.getHTTP3Configuration().setStreamIdleTimeout(15000);
+		http3.getHTTP3Configuration().setStreamIdleTimeout(settings.streamIdleTimeout().toMillis());
 		HTTP3ServerConnector connector = new HTTP3ServerConnector(server, sslContextFactory, http3);
-		connector.setPort(443);
-		// Configure the max number of requests per QUIC connection.
-		connector.getQuicConfiguration().setMaxBidirectionalRemoteStreams(1024);
+		connector.getQuicConfiguration().setMaxBidirectionalRemoteStreams(settings.maxStreams());
 		connector.getQuicConfiguration().setProtocols(List.of("h3"));
+		connector.setIdleTimeout(settings.idleTimeout().toMillis());
 		connector.setHost(bind.getHostAddress());
+		connector.setPort(port);
 		return connector;
 	}
 	
@@ -187,6 +357,35 @@ public class JettySetup {
 		return sslFactory;
 	}
 	
+	/** QUIC reads keys from a file, the TCP connectors still use {@code keyStore} directly **/
+	private static Path keyStoreFile(KeyStore keyStore, String keyStorePassword, Path directory) {
+		if(directory == null) {
+			throw new IllegalArgumentException("HTTP/3 needs a directory for its key file");
+		}
+		try {
+			/* Replaces a file left by a process that was killed while starting */
+			Path file = directory.resolve("quic-keys.p12");
+			Files.deleteIfExists(file);
+			Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+			try(var out = Files.newOutputStream(file)) {
+				keyStore.store(out, keyStorePassword.toCharArray());
+			}
+			return file;
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		} catch(GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static void deleteKeyStoreFile(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch(IOException e) {
+			LOG.atError().setCause(e).log("Couldn't delete key file " + file);
+		}
+	}
+	
 	private static void setCommonProperties(ServerConnector con, InetAddress bind, int port) {
 		con.setInheritChannel(false);
 		con.setAcceptedTcpNoDelay(false);
@@ -196,11 +395,11 @@ public class JettySetup {
 		con.setPort(port);
 	}
 	
-	private static HttpConfiguration httpConfig(boolean requireSni) {
+	private static HttpConfiguration httpConfig(boolean requireSni, Ports ports, Http3 http3) {
 		var httpConfig = new HttpConfiguration();
 		httpConfig.setSendServerVersion(false);
 		httpConfig.setSecureScheme("https");
-		httpConfig.setSecurePort(443);
+		httpConfig.setSecurePort(ports.https());
 		httpConfig.setHttpCompliance(HttpCompliance.RFC7230);
 		httpConfig.setUriCompliance(UriCompliance.RFC3986_UNAMBIGUOUS);
 		httpConfig.setRequestCookieCompliance(CookieCompliance.RFC6265);
@@ -212,15 +411,57 @@ public class JettySetup {
 		secureCustomizer.setSniHostCheck(requireSni);
 		httpConfig.addCustomizer(secureCustomizer);
 		
-		/*httpConfig.addCustomizer((connector, channelConfig, request) -> {
-			if(request.getHttpVersion().getVersion() != HttpVersion.HTTP_3.getVersion()) {
-				request.getResponse().getHttpFields().add(HttpHeader.ALT_SVC, "h3=\":443\"; ma=3600");
-			}
-		});*/
+		if(http3.enabled()) {
+			String altSvc = "h3=\":" + httpConfig.getSecurePort() + "\"; ma=" + http3.advertiseAge().toSeconds();
+			httpConfig.addCustomizer((connector, channelConfig, request) -> {
+				/* Plaintext requests are redirected, and HTTP/3 clients already know */
+				if(request.isSecure() && request.getHttpVersion() != HttpVersion.HTTP_3) {
+					request.getResponse().getHttpFields().add(HttpHeader.ALT_SVC, altSvc);
+				}
+			});
+		}
 		
 		return httpConfig;
 	}
 
+	/** Handles a limited number of requests at once, so slow requests can't use all memory or database connections **/
+	private static class ConcurrencyLimitHandler extends HandlerWrapper {
+		private final Semaphore permits;
+		private final Duration maxQueueTime;
+		private final LongAdder rejected;
+
+		ConcurrencyLimitHandler(int maxConcurrentRequests, Duration maxQueueTime) {
+			this.permits = new Semaphore(maxConcurrentRequests, true);
+			this.maxQueueTime = maxQueueTime;
+			this.rejected = new LongAdder();
+		}
+
+		@Override
+		public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+				throws IOException, ServletException {
+			boolean acquired;
+			try {
+				acquired = permits.tryAcquire(maxQueueTime.toNanos(), TimeUnit.NANOSECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				acquired = false;
+			}
+			
+			if(!acquired) {
+				rejected.increment();
+				response.setHeader(HttpHeader.RETRY_AFTER.asString(), "1");
+				ResponseUtil.doEmptyResponse(baseRequest, HttpStatus.SERVICE_UNAVAILABLE_503);
+				return;
+			}
+			
+			try {
+				super.handle(target, baseRequest, request, response);
+			} finally {
+				permits.release();
+			}
+		}
+	}
+
 	private static class SuperHandler extends AbstractHandler {
 		private final RequestConsumer mainHandler;
 
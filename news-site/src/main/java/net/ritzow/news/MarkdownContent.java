@@ -5,6 +5,7 @@ import j2html.tags.DomContent;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import org.commonmark.node.Node;
 import org.commonmark.parser.Parser;
 import org.commonmark.renderer.html.HtmlRenderer;
@@ -12,20 +13,27 @@ import org.commonmark.renderer.html.HtmlRenderer;
 public class MarkdownContent extends DomContent {
 	private final Node markdown;
 	
+	/* Both are thread-safe */
+	private static final Parser PARSER = Parser.builder().build();
 	private static final HtmlRenderer RENDERER = HtmlRenderer.builder().escapeHtml(true).build();
 	
 	public MarkdownContent(String markdown) {
-		this.markdown = Parser.builder().build().parse(markdown);
+		this.markdown = PARSER.parse(markdown);
 	}
 	
 	public MarkdownContent(Reader markdown) {
 		try {
-			this.markdown = Parser.builder().build().parseReader(markdown);
+			this.markdown = PARSER.parseReader(markdown);
 		} catch(IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 	
+	/** Render to UTF-8 once, for content that is shown many times **/
+	public EncodedHtml encode() {
+		return new EncodedHtml(RENDERER.render(markdown).getBytes(StandardCharsets.UTF_8));
+	}
+	
 	@Override
 	public <T extends Appendable> T render(HtmlBuilder<T> builder, Object model) {
 		RENDERER.render(markdown, builder.output());
@@ -13,21 +13,29 @@ import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
 import net.ritzow.news.database.ContentManager;
+import net.ritzow.news.database.ContentManager.GroupCommit;
+import net.ritzow.news.database.StorageBackend;
 import net.ritzow.news.internal.SiteResources;
 import net.ritzow.news.page.ArticlePage;
 import net.ritzow.news.page.ErrorPages;
 import net.ritzow.news.page.ExceptionPage;
 import net.ritzow.news.page.MainPage;
+import net.ritzow.news.page.MetricsPage;
 import net.ritzow.news.page.SearchPage;
 import net.ritzow.news.page.SessionPage;
 import net.ritzow.news.page.ShutdownPage;
 import net.ritzow.news.response.CachingImmutableRequestConsumer;
+import net.ritzow.news.response.NamedResourceConsumer;
+import net.ritzow.news.response.StaticMemory;
 import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
@@ -49,8 +57,17 @@ import static net.ritzow.news.ResponseUtil.*;
 public final class NewsSite {
 	public final Server server;
 	public final ContentManager cm; //TODO use intellij to refactor cm into getter method
+	public final RenderedArticles articles;
+	public final PageCache pages;
+	public final ByteBoundedCache<Object> fragments;
 	public final Translator<String> translator;
 	public final Set<String> peers;
+	private final StaticMemory staticMemory;
+	
+	/* Most pages cached for visitors without a session */
+	private static final int PAGE_CACHE_SIZE = 1024;
+	/* Most HTML kept for page fragments such as the header */
+	private static final long FRAGMENT_CACHE_BYTES = 4 << 20;
 	
 	public static class Builder {
 		private boolean requireSni;
@@ -58,7 +75,17 @@ public final class NewsSite {
 		private String keyStorePassword;
 		private Set<String> peers;
 		private InetAddress[] bind;
+		private StorageBackend storage;
 		private Path databaseDir;
+		private Path keyStoreDir;
+		private GroupCommit groupCommit = GroupCommit.DEFAULT;
+		private long articleCacheBytes = 64 << 20;
+		private boolean prerenderArticles;
+		private Duration pageCacheAge = Duration.ofSeconds(5);
+		private JettySetup.Execution execution = JettySetup.Execution.DEFAULT;
+		private JettySetup.Ports ports = JettySetup.Ports.DEFAULT;
+		private JettySetup.Http3 http3 = JettySetup.Http3.DISABLED;
+		private long staticMemoryBytes = 32 << 20;
 
 		public Builder setRequireSni(boolean requireSni) {
 			this.requireSni = requireSni;
@@ -85,13 +112,75 @@ public final class NewsSite {
 			return this;
 		}
 		
+		/** Store articles in array files under {@code directory} **/
 		public Builder setDatabaseDir(Path directory) {
+			this.storage = StorageBackend.arrayStore(directory);
 			this.databaseDir = directory;
 			return this;
 		}
+		
+		public Builder setStorage(StorageBackend storage) {
+			this.storage = storage;
+			return this;
+		}
+		
+		public Builder setGroupCommit(GroupCommit groupCommit) {
+			this.groupCommit = groupCommit;
+			return this;
+		}
+
+		/** Most rendered article HTML kept in memory, in bytes **/
+		public Builder setArticleCacheBytes(long articleCacheBytes) {
+			this.articleCacheBytes = articleCacheBytes;
+			return this;
+		}
+		
+		/** Render articles when they are published instead of when they are first viewed **/
+		public Builder setPrerenderArticles(boolean prerenderArticles) {
+			this.prerenderArticles = prerenderArticles;
+			return this;
+		}
+
+		/** How long pages rendered for visitors without a session are reused, or zero to always render pages **/
+		public Builder setPageCacheAge(Duration pageCacheAge) {
+			this.pageCacheAge = pageCacheAge;
+			return this;
+		}
+
+		/** Thread pool and concurrency limits for handling requests **/
+		public Builder setExecution(JettySetup.Execution execution) {
+			this.execution = execution;
+			return this;
+		}
+
+		/** Ports to bind on each address, 80 and 443 by default **/
+		public Builder setPorts(JettySetup.Ports ports) {
+			this.ports = ports;
+			return this;
+		}
+
+		/** Serve HTTP/3 over QUIC as well, which needs the HTTPS port over UDP and the native QUIC library **/
+		public Builder setHttp3(JettySetup.Http3 http3) {
+			this.http3 = http3;
+			return this;
+		}
+
+		/** Where the key file read by QUIC is written while starting, the database directory by default **/
+		public Builder setKeyStoreDir(Path keyStoreDir) {
+			this.keyStoreDir = keyStoreDir;
+			return this;
+		}
+
+		/** Most off-heap memory for static resources such as fonts and CSS **/
+		public Builder setStaticMemoryLimit(long bytes) {
+			this.staticMemoryBytes = bytes;
+			return this;
+		}
 
 		public NewsSite start() throws Exception {
-			var site = new NewsSite(requireSni, keyStore, keyStorePassword, peers, databaseDir, bind);
+			var site = new NewsSite(requireSni, keyStore, keyStorePassword, peers, storage, groupCommit, 
+				articleCacheBytes, prerenderArticles, pageCacheAge, execution, ports, http3, 
+				keyStoreDir == null ? databaseDir : keyStoreDir, staticMemoryBytes, bind);
 			site.start();
 			return site;
 		}
@@ -105,33 +194,59 @@ public final class NewsSite {
 		server.join();
 	}
 	
+	/** Port plaintext HTTP is served on, once started **/
+	public int httpPort() {
+		return JettySetup.localPort(server, false);
+	}
+	
+	/** Port HTTPS is served on, once started **/
+	public int httpsPort() {
+		return JettySetup.localPort(server, true);
+	}
+	
+	/** Stop serving requests, then commit pending writes and close the database **/
+	public void stop() throws Exception {
+		server.stop();
+		cm.shutdown();
+	}
+	
 	private void start() throws Exception {
 		server.start();
 	}
 
-	private NewsSite(boolean requireSni, KeyStore keyStore, String keyStorePassword, Set<String> peers, Path databaseDir, InetAddress... bind) throws Exception {
-		cm = new ContentManager(databaseDir);
+	private NewsSite(boolean requireSni, KeyStore keyStore, String keyStorePassword, Set<String> peers, StorageBackend storage, GroupCommit groupCommit, 
+			long articleCacheBytes, boolean prerenderArticles, Duration pageCacheAge, JettySetup.Execution execution, 
+			JettySetup.Ports ports, JettySetup.Http3 http3, Path keyStoreDir, long staticMemoryBytes, InetAddress... bind) throws Exception {
+		cm = new ContentManager(storage, groupCommit);
+		articles = new RenderedArticles(articleCacheBytes);
+		if(prerenderArticles) {
+			cm.onPublish(articles::prerender);
+		}
+		pages = new PageCache(pageCacheAge, PAGE_CACHE_SIZE);
+		fragments = new ByteBoundedCache<>(FRAGMENT_CACHE_BYTES);
+		staticMemory = new StaticMemory(staticMemoryBytes);
 		ContentUtil.genArticles(cm);
 		translator = Translator.ofProperties(properties("/lang/welcome.properties"));
 		this.peers = peers;
 		RequestConsumer<NewsSite> route = matchStaticPaths(
 			rootNoMatchOrNext(
-				MainPage::mainPageGenerator,
+				pages.anonymous(MainPage::mainPageGenerator),
 				ErrorPages::doGeneric404,
-				entry("article", ArticlePage::articlePageProcessor),
-				entry("opensearch", new CachingImmutableRequestConsumer<>(SiteResources.RES_OPENSEARCH, Duration.ZERO)),
+				entry("article", pages.anonymous(ArticlePage::articlePageProcessor)),
+				entry("opensearch", new CachingImmutableRequestConsumer<>(SiteResources.RES_OPENSEARCH, Duration.ZERO, staticMemory)),
 				entry("search", SearchPage::searchPage),
 				entry("content", rootNoMatchOrNext(
 					ErrorPages::doGeneric404,
 					ErrorPages::doGeneric404,
 					/* Content hashes */
-					SiteResources.RES_ICON,
-					SiteResources.RES_GLOBAL_CSS,
-					SiteResources.RES_FONT,
-					SiteResources.RES_FONT_FACE
+					NamedResourceConsumer.ofHashed(SiteResources.RES_ICON, staticMemory),
+					NamedResourceConsumer.ofHashed(SiteResources.RES_GLOBAL_CSS, staticMemory),
+					NamedResourceConsumer.ofHashed(SiteResources.RES_FONT, staticMemory),
+					NamedResourceConsumer.ofHashed(SiteResources.RES_FONT_FACE, staticMemory)
 				)),
 				entry("session", SessionPage::sessionPage),
 				entry("kill", ShutdownPage::shutdownPage),
+				entry("metrics", MetricsPage::metricsPage),
 				entry("streamtest", NewsSite::streamingPage)
 			)
 		);
@@ -140,12 +255,32 @@ public final class NewsSite {
 			requireSni,
 			keyStore, 
 			keyStorePassword,
-			consumer(this, route), 
+			execution,
+			ports,
+			http3,
+			keyStoreDir,
+			consumer(this, withReadScope(route)), 
 			request -> ExceptionPage.exceptionPageHandler(request, this), 
 			bind
 		);
 	}
 	
+	/**
+	 * Database reads of a single GET or HEAD request share one transaction, until the page is streamed by
+	 * {@link PageTemplate#doDecoratedPage}. Other methods write, and must read their own writes afterwards.
+	 **/
+	private static RequestConsumer<NewsSite> withReadScope(RequestConsumer<NewsSite> handler) {
+		return (request, site) -> {
+			if(!HttpMethod.GET.is(request.getMethod()) && !HttpMethod.HEAD.is(request.getMethod())) {
+				handler.accept(request, site);
+				return;
+			}
+			try(var scope = site.cm.openReadScope()) {
+				handler.accept(request, site);
+			}
+		};
+	}
+	
 	private static void streamingPage(Request request, NewsSite site, Iterator<String> path) throws IOException {
 		ByteBuffer buf = StandardCharsets.UTF_8.newEncoder().encode(CharBuffer.wrap("test message 123\n"));
 		request.getResponse().getHttpFields().add(HttpHeader.CONTENT_TYPE, "text/plain; charset=utf-8");
@@ -161,6 +296,20 @@ public final class NewsSite {
 		}
 	}
 	
+	/** Statistics records shown by the metrics page **/
+	public List<Object> metrics() {
+		List<Object> metrics = new ArrayList<>();
+		metrics.add(JettySetup.metrics(server));
+		cm.storageMetrics().ifPresent(metrics::add);
+		metrics.add(cm.searchMetrics());
+		metrics.add(cm.searchCacheMetrics());
+		metrics.add(articles.metrics());
+		metrics.add(pages.metrics());
+		metrics.add(fragments.metrics());
+		metrics.add(staticMemory.metrics());
+		return metrics;
+	}
+	
 	public static void doSessionInitResponse(Request request) throws IOException {
 		/* Shared session handler between connectors */
 		var session = request.getSessionHandler().getSession(request.getParameter("id"));
@@ -11,8 +11,6 @@ import net.ritzow.news.internal.SiteResources;
 import org.eclipse.jetty.http.HttpURI;
 import org.w3c.dom.Document;
 
-import static net.ritzow.news.ResponseUtil.contentPath;
-
 public class OpenSearch {
 
 	public static String generateOpensearchXml() {
@@ -40,12 +38,16 @@ public class OpenSearch {
 		
 		var image = doc.createElement("Image");
 		image.setAttribute("type", "image/svg+xml");
-		image.setTextContent(HttpURI.build(uri).path(contentPath(SiteResources.RES_ICON)).toString());
+		image.setTextContent(HttpURI.build(uri).path(SiteResources.ICON_PATH).toString());
 		
 		var template = doc.createElement("Url");
 		template.setAttribute("type", "text/html");
 		template.setAttribute("template", HttpURI.build(uri).path("/search").query("q={searchTerms}").toString());
 		
+		var suggestions = doc.createElement("Url");
+		suggestions.setAttribute("type", "application/x-suggestions+json");
+		suggestions.setAttribute("template", HttpURI.build(uri).path("/search/suggest").query("q={searchTerms}").toString());
+		
 		var self = doc.createElement("Url");
 		self.setAttribute("type", "application/opensearchdescription+xml");
 		self.setAttribute("rel", "self");
@@ -55,6 +57,7 @@ public class OpenSearch {
 		root.appendChild(description);
 		root.appendChild(image);
 		root.appendChild(template);
+		root.appendChild(suggestions);
 		root.appendChild(self);
 		
 		doc.appendChild(root);
@@ -0,0 +1,198 @@
+package net.ritzow.news;
+
+import j2html.rendering.FlatHtml;
+import j2html.tags.DomContent;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import net.ritzow.news.ResponseUtil.ContextRequestConsumer;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+
+/**
+ * Recently rendered pages shared by visitors without a session. A page is cached for a short time, and is
+ * keyed by its path and query, the visitor's supported locales and the content generation, so new articles
+ * and comments show up immediately. Cached pages are stored gzip compressed with strong ETags.
+ **/
+public final class PageCache {
+
+	private static final String CAPTURE_ATTRIBUTE = "net.ritzow.pagecapture";
+	/* Distinct from the "--gzip" suffix that GzipHandler removes from If-None-Match */
+	private static final String GZIP_ETAG_SUFFIX = "-gz";
+
+	public record Metrics(long hits, long misses, long notModified, int pages) {}
+
+	/** @param locales The visitor's preferred locales in languages the site supports, which determine page locales **/
+	private record Key(String pathQuery, List<Locale> locales, long generation) {}
+
+	/** @param hash Identifies the uncompressed body, for ETags **/
+	private record Page(int status, String contentLanguage, byte[] identity, byte[] gzip, String hash, long created) {}
+
+	private final Duration maxAge;
+	private final Map<Key, Page> pages;
+	private long hits, misses, notModified;
+
+	public PageCache(Duration maxAge, int maxPages) {
+		this.maxAge = maxAge;
+		this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Page> eldest) {
+				return size() > maxPages;
+			}
+		};
+	}
+
+	/** Serve GET and HEAD requests from visitors without a session using cached pages rendered by {@code handler} **/
+	public ContextRequestConsumer<NewsSite> anonymous(ContextRequestConsumer<NewsSite> handler) {
+		return (request, site, path) -> {
+			var method = HttpMethod.fromString(request.getMethod());
+			if(method != HttpMethod.GET && method != HttpMethod.HEAD || HttpUser.getExistingSession(request).isPresent()) {
+				handler.accept(request, site, path);
+				return;
+			}
+
+			var key = new Key(request.getHttpURI().getPathQuery(), supportedLocales(request, site), site.cm.generation());
+			var page = get(key);
+			if(page == null) {
+				var capture = new Capture();
+				request.setAttribute(CAPTURE_ATTRIBUTE, capture);
+				try {
+					handler.accept(request, site, path);
+				} finally {
+					request.removeAttribute(CAPTURE_ATTRIBUTE);
+				}
+
+				/* Not an HTML page, already sent */
+				if(capture.page == null) {
+					return;
+				}
+
+				page = capture.page;
+				if(page.status() == HttpStatus.OK_200) {
+					put(key, page);
+				}
+			}
+			doPage(request, page);
+		};
+	}
+
+	/** Whether a page rendered for {@code request} will be cached and shown to other visitors **/
+	static boolean capturing(Request request) {
+		return request.getAttribute(CAPTURE_ATTRIBUTE) instanceof Capture;
+	}
+
+	/** Render {@code html} for caching instead of streaming it, if the request is served through a page cache **/
+	static boolean capture(Request request, int status, List<Locale> langs, DomContent html) throws IOException {
+		if(!(request.getAttribute(CAPTURE_ATTRIBUTE) instanceof Capture capture)) {
+			return false;
+		}
+		var identity = new ByteArrayOutputStream();
+		try(var out = new Utf8Output(identity, request.getHttpChannel().getByteBufferPool(), request.getResponse().getBufferSize())) {
+			html.render(FlatHtml.into(out).appendUnescapedText("<!DOCTYPE html>"), null);
+			out.flush();
+		}
+		byte[] body = identity.toByteArray();
+		var gzip = new ByteArrayOutputStream(body.length / 4);
+		try(var out = new GZIPOutputStream(gzip)) {
+			out.write(body);
+		}
+		capture.page = new Page(
+			status,
+			String.join(", ", langs.stream().distinct().map(Locale::toLanguageTag).toList()),
+			body,
+			gzip.toByteArray(),
+			ResourceUtil.bytesToString(ResourceUtil.hash(body)),
+			System.nanoTime()
+		);
+		return true;
+	}
+
+	public synchronized Metrics metrics() {
+		return new Metrics(hits, misses, notModified, pages.size());
+	}
+
+	private static final class Capture {
+		private Page page;
+	}
+
+	private synchronized Page get(Key key) {
+		var page = pages.get(key);
+		if(page != null && System.nanoTime() - page.created() < maxAge.toNanos()) {
+			hits++;
+			return page;
+		}
+		misses++;
+		return null;
+	}
+
+	private synchronized void put(Key key, Page page) {
+		pages.put(key, page);
+	}
+
+	private synchronized void countNotModified() {
+		notModified++;
+	}
+
+	private void doPage(Request request, Page page) throws IOException {
+		boolean gzip = request.getHttpFields().getQualityCSV(HttpHeader.ACCEPT_ENCODING).contains("gzip");
+		boolean cacheable = page.status() == HttpStatus.OK_200;
+		Response response = request.getResponse();
+		/* Browsers revalidate every time, so pages are never shown after logging in */
+		response.setHeader(HttpHeader.CACHE_CONTROL, cacheable ? "no-cache" : "no-store");
+		response.setHeader("Referrer-Policy", "no-referrer");
+		response.getHttpFields().addCSV(HttpHeader.VARY, HttpHeader.ACCEPT_ENCODING.asString(), HttpHeader.ACCEPT_LANGUAGE.asString());
+		request.setHandled(true);
+
+		if(cacheable) {
+			/* Each encoding is a different representation */
+			String etag = "\"" + page.hash() + (gzip ? GZIP_ETAG_SUFFIX : "") + "\"";
+			response.setHeader(HttpHeader.ETAG, etag);
+			if(matches(request, etag)) {
+				countNotModified();
+				response.setStatus(HttpStatus.NOT_MODIFIED_304);
+				return;
+			}
+		}
+
+		byte[] body = gzip ? page.gzip() : page.identity();
+		response.setStatus(page.status());
+		response.setContentType("text/html; charset=utf-8");
+		if(!page.contentLanguage().isEmpty()) {
+			response.setHeader(HttpHeader.CONTENT_LANGUAGE, page.contentLanguage());
+		}
+		if(gzip) {
+			/* GzipHandler leaves responses that are already encoded alone */
+			response.setHeader(HttpHeader.CONTENT_ENCODING, "gzip");
+		}
+		response.setContentLength(body.length);
+		if(!HttpMethod.HEAD.is(request.getMethod())) {
+			response.getHttpOutput().write(body);
+		}
+	}
+
+	private static boolean matches(Request request, String etag) {
+		for(String match : request.getHttpFields().getCSV(HttpHeader.IF_NONE_MATCH, true)) {
+			if(match.equals("*") || match.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* Only these determine the locales bestLocale chooses */
+	private static List<Locale> supportedLocales(Request request, NewsSite site) {
+		var languages = site.cm.getSupportedLocales().stream().map(Locale::getLanguage).toList();
+		return HttpUser.localesForUser(request).stream()
+			.filter(locale -> languages.contains(locale.getLanguage()))
+			.distinct()
+			.toList();
+	}
+}
@@ -15,6 +15,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 import net.ritzow.news.component.CommonComponents;
 import net.ritzow.news.database.ContentManager.Article3;
@@ -22,26 +24,37 @@ import net.ritzow.news.internal.SiteResources;
 import org.eclipse.jetty.server.Request;
 
 import static j2html.TagCreator.*;
-import static net.ritzow.news.ResponseUtil.contentPath;
 import static net.ritzow.news.ResponseUtil.doGetHtmlStreamed;
 
 public class PageTemplate {
 
 	//TODO make a method similar to freeze that takes a predicate to determine whether to use a
 	// cached UnescapedText depending on the value of 'model'.
-	/** Pre-render child elements to a string instead of traversing DomContent **/
+	/** Pre-render child elements to UTF-8 instead of traversing DomContent **/
 	public static DomContent freeze(DomContent... content) {
 		try {
-			return rawHtml(each(content).render(FlatHtml.inMemory()).toString());
+			return new EncodedHtml(each(content).render(FlatHtml.inMemory()).toString());
 		} catch(IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 	
+	/* Per-request content is left as a slot when compiling a template */
+	private static boolean deferred(DomContent content, Object model) {
+		if(model instanceof CompiledTemplate.Compiler compiler) {
+			compiler.defer(content);
+			return true;
+		}
+		return false;
+	}
+	
 	public static <T extends Renderable> DomContent eachStreamed(Stream<T> content) {
 		return new DomContent() {
 			@Override
 			public <U extends Appendable> U render(HtmlBuilder<U> builder, Object model) throws IOException {
+				if(deferred(this, model)) {
+					return builder.output();
+				}
 				var it = content.iterator();
 				while(it.hasNext()) {
 					it.next().render(builder, model);
@@ -58,6 +71,9 @@ public class PageTemplate {
 		return new DomContent() {
 			@Override
 			public <T extends Appendable> T render(HtmlBuilder<T> builder, Object model) throws IOException {
+				if(deferred(this, model)) {
+					return builder.output();
+				}
 				content.render(builder, new HtmlSessionState(request, translator, context));
 				return builder.output();
 			}
@@ -69,6 +85,9 @@ public class PageTemplate {
 		return new DomContent() {
 			@Override
 			public <T extends Appendable> T render(HtmlBuilder<T> builder, Object model) throws IOException {
+				if(deferred(this, model)) {
+					return builder.output();
+				}
 				var current = (HtmlSessionState)model;
 				//TODO this could probably be more efficient
 				var map = new HashMap<>(current.named());
@@ -81,15 +100,19 @@ public class PageTemplate {
 	}
 
 	public static void doDecoratedPage(int status, Request request, NewsSite site, Locale mainLocale, String title, DomContent body) {
+		/* Pages read before rendering, so don't hold the read snapshot while a slow client receives the page */
+		var header = CommonComponents.header(request, site);
+		site.cm.closeReadScope();
 		doGetHtmlStreamed(request, status, List.of(mainLocale),
 			context(request, site.translator, Map.of(),
 				CommonComponents.page(title, 
-					contentPath(SiteResources.RES_ICON),
+					SiteResources.ICON_PATH,
 					"/opensearch",
-					contentPath(SiteResources.RES_GLOBAL_CSS),
+					SiteResources.GLOBAL_CSS_PATH,
 					mainLocale,
+					PageCache.capturing(request),
 					CommonComponents.content(
-						CommonComponents.header(request, site),
+						header,
 						body
 					)
 				)
@@ -97,6 +120,28 @@ public class PageTemplate {
 		);
 	}
 
+	/**
+	 * Content rendered once per {@code key} and then copied from {@code cache}.
+	 * The content must only depend on the key, such as a fragment shared by every page with the same locale.
+	 */
+	public static DomContent cached(ByteBoundedCache<Object> cache, Object key, Supplier<? extends DomContent> content) {
+		return new DomContent() {
+			@Override
+			public <T extends Appendable> T render(HtmlBuilder<T> builder, Object model) throws IOException {
+				if(deferred(this, model)) {
+					return builder.output();
+				}
+				var html = cache.get(key);
+				if(html.isEmpty()) {
+					html = Optional.of(new EncodedHtml(content.get().render(FlatHtml.inMemory(), model).toString()));
+					cache.put(key, html.orElseThrow());
+				}
+				html.orElseThrow().render(builder, model);
+				return builder.output();
+			}
+		};
+	}
+
 	public interface RequestHandler {
 		DomContent handle(HtmlSessionState request) throws IOException;
 	}
@@ -105,6 +150,9 @@ public class PageTemplate {
 		return new DomContent() {
 			@Override
 			public <T extends Appendable> T render(HtmlBuilder<T> builder, Object model) throws IOException {
+				if(deferred(this, model)) {
+					return builder.output();
+				}
 				handler.handle((HtmlSessionState)model).render(builder, model);
 				return builder.output();
 			}
@@ -115,7 +163,11 @@ public class PageTemplate {
 		return new DomContent() {
 			@Override
 			public <T extends Appendable> T render(HtmlBuilder<T> builder, Object model) throws IOException {
-				((HtmlSessionState)model).named(name).render(builder, model);
+				if(model instanceof CompiledTemplate.Compiler compiler) {
+					compiler.hole(name, this);
+				} else {
+					((HtmlSessionState)model).named(name).render(builder, model);
+				}
 				return builder.output();
 			}
 		};
@@ -125,6 +177,9 @@ public class PageTemplate {
 		return new DomContent() {
 			@Override
 			public <T extends Appendable> T render(HtmlBuilder<T> builder, Object model) throws IOException {
+				if(deferred(this, model)) {
+					return builder.output();
+				}
 				var state = ((HtmlSessionState)model);
 				builder.appendUnescapedText(state.translator().forPrioritized(name, HttpUser.localesForUser(state.request())));
 				return builder.output();
@@ -0,0 +1,41 @@
+package net.ritzow.news;
+
+import java.io.Reader;
+import java.util.function.Supplier;
+import net.ritzow.news.database.ContentManager;
+
+/**
+ * Article HTML, keyed by revision object ID. A revision's markdown never changes,
+ * so entries are only removed to stay within the size limit.
+ **/
+public final class RenderedArticles implements ContentManager.RevisionTransform<EncodedHtml> {
+
+	private final ByteBoundedCache<Long> articles;
+
+	/** @param maxBytes Most encoded HTML kept, not counting per-entry overhead **/
+	public RenderedArticles(long maxBytes) {
+		this.articles = new ByteBoundedCache<>(maxBytes);
+	}
+
+	/** The HTML of {@code revision}, rendering and caching {@code markdown} if it isn't cached **/
+	@Override
+	public EncodedHtml apply(long revision, Supplier<Reader> markdown) {
+		var cached = articles.get(revision);
+		if(cached.isPresent()) {
+			return cached.orElseThrow();
+		}
+		/* Concurrent misses on the same revision render the same HTML */
+		var html = new MarkdownContent(markdown.get()).encode();
+		articles.put(revision, html);
+		return html;
+	}
+
+	/** Render a newly published revision ahead of its first view **/
+	public void prerender(ContentManager.Published published) {
+		articles.put(published.revision(), new MarkdownContent(published.markdown()).encode());
+	}
+
+	public ByteBoundedCache.Metrics metrics() {
+		return articles.metrics();
+	}
+}
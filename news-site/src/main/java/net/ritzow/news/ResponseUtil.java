@@ -3,15 +3,13 @@ package net.ritzow.news;
 import j2html.rendering.FlatHtml;
 import j2html.tags.DomContent;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
-import java.io.Writer;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import net.ritzow.news.response.ContentSource;
 import net.ritzow.news.response.NamedResourceConsumer;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpStatus;
@@ -24,15 +22,20 @@ public class ResponseUtil {
 			/* Must consume all request body content! (Jetty was giving a DEBUG exception) */
 			skipInput(request);
 			
+			if(PageCache.capture(request, status, langs, html)) {
+				return;
+			}
+			
 			//TODO send prefetch 103 Early Hints
 			//request.getResponse().getHttpChannel().sendResponse(new MetaData.Response())
 			
 			setBasicStreamingHeaders(request.getResponse(), status, "text/html; charset=utf-8");
 			request.getResponse().getHttpFields().addCSV(HttpHeader.CONTENT_LANGUAGE,
 				langs.stream().distinct().map(Locale::toLanguageTag).toArray(String[]::new));
-			Writer body = new OutputStreamWriter(request.getResponse().getHttpOutput(), StandardCharsets.UTF_8);
-			html.render(FlatHtml.into(body).appendUnescapedText("<!DOCTYPE html>"), null);
-			body.flush();
+			try(var body = new Utf8Output(request.getResponse().getHttpOutput(), request.getHttpChannel().getByteBufferPool())) {
+				html.render(FlatHtml.into(body).appendUnescapedText("<!DOCTYPE html>"), null);
+				body.flush();
+			}
 			request.setHandled(true);
 		} catch(IOException e) {
 			throw new UncheckedIOException(e);
@@ -61,8 +64,9 @@ public class ResponseUtil {
 		response.setHeader("Referrer-Policy", "no-referrer");
 	}
 	
-	public static <T> String contentPath(NamedResourceConsumer<T> resource) {
-		return "/content/" + resource.getKey();
+	/** Where {@link NamedResourceConsumer#ofHashed} serves {@code src} under "/content" **/
+	public static String contentPath(ContentSource src) {
+		return "/content/" + ResourceUtil.bytesToString(src.hash());
 	}
 	
 	private static final Pattern PATH_COMPONENT = Pattern.compile("/");
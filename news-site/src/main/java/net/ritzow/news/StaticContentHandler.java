@@ -3,12 +3,14 @@ package net.ritzow.news;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.util.Iterator;
 import java.util.function.Supplier;
 import net.ritzow.news.ResponseUtil.ContextRequestConsumer;
+import net.ritzow.news.response.StaticMemory;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpStatus;
@@ -21,16 +23,20 @@ import static net.ritzow.news.ResponseUtil.skipInput;
 class StaticContentHandler<T> implements ContextRequestConsumer<T> {
 	private final String contentType;
 	private final Supplier<InputStream> resource;
-	private SoftReference<byte[]> content;
-	private String etag;
+	/* Set instead of content if the resource fits in StaticMemory */
+	private volatile ByteBuffer resident;
+	private volatile SoftReference<byte[]> content;
+	private volatile String etag;
+	private final StaticMemory memory;
 	
-	public static <T> StaticContentHandler<T> staticContent(Supplier<InputStream> resource, String contentType) {
-		return new StaticContentHandler<T>(resource, contentType);
+	public static <T> StaticContentHandler<T> staticContent(Supplier<InputStream> resource, String contentType, StaticMemory memory) {
+		return new StaticContentHandler<T>(resource, contentType, memory);
 	}
 	
-	public StaticContentHandler(Supplier<InputStream> resource, String contentType) {
+	public StaticContentHandler(Supplier<InputStream> resource, String contentType, StaticMemory memory) {
 		this.contentType = contentType;
 		this.resource = resource;
+		this.memory = memory;
 		content = new SoftReference<>(null);
 	}
 	
@@ -41,10 +47,10 @@ class StaticContentHandler<T> implements ContextRequestConsumer<T> {
 		
 		Response baseResponse = request.getResponse();
 		
-		byte[] data = null;
+		ByteBuffer data = null;
 		
 		if(etag == null) {
-			data = load();
+			data = data();
 		}
 		
 		HttpField field = request.getHttpFields().getField(HttpHeader.IF_NONE_MATCH);
@@ -64,19 +70,40 @@ class StaticContentHandler<T> implements ContextRequestConsumer<T> {
 		baseResponse.setHeader(HttpHeader.ETAG, etag);
 		
 		if(baseResponse.getStatus() != HttpStatus.NOT_MODIFIED_304) {
-			if(data == null && (data = content.get()) == null) {
-				data = load();
+			if(data == null) {
+				data = data();
 			}
 			baseResponse.setContentType(contentType);
-			baseResponse.setContentLength(data.length);
+			baseResponse.setContentLength(data.remaining());
 			baseResponse.setStatus(HttpStatus.OK_200);
-			baseResponse.getHttpOutput().write(data);
-			baseResponse.getHttpOutput().flush();
+			baseResponse.getHttpOutput().sendContent(data);
 		}
 		request.setHandled(true);
 	}
 	
-	byte[] load() {
+	private ByteBuffer data() {
+		ByteBuffer data = loaded();
+		if(data != null) {
+			return data;
+		}
+		/* Load once at a time, since each load may reserve StaticMemory that is never released */
+		synchronized(this) {
+			data = loaded();
+			return data == null ? load() : data;
+		}
+	}
+	
+	private ByteBuffer loaded() {
+		ByteBuffer resident = this.resident;
+		if(resident != null) {
+			return resident.duplicate();
+		}
+		byte[] heap = content.get();
+		return heap == null ? null : ByteBuffer.wrap(heap);
+	}
+	
+	/** Loads the resource, hashing it only the first time **/
+	private ByteBuffer load() {
 		byte[] data;
 		try(var in = resource.get()) {
 			data = in.readAllBytes();
@@ -87,8 +114,10 @@ class StaticContentHandler<T> implements ContextRequestConsumer<T> {
 		} catch(NoSuchAlgorithmException | IOException e) {
 			throw new RuntimeException(e);
 		}
+		if(memory.reserve(data.length)) {
+			return (resident = StaticMemory.direct(data)).duplicate();
+		}
 		content = new SoftReference<>(data);
-		
-		return data;
+		return ByteBuffer.wrap(data);
 	}
 }
@@ -0,0 +1,132 @@
+package net.ritzow.news;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.HttpOutput;
+
+/**
+ * Encodes text as UTF-8 into a pooled buffer and writes it to a response, or any stream, a full buffer at a time.
+ * Pre-encoded HTML such as {@link EncodedHtml} is copied as is.
+ **/
+public final class Utf8Output implements Appendable, AutoCloseable {
+	private final OutputStream out;
+	private final ByteBufferPool pool;
+	private final ByteBuffer buffer;
+	private final int size;
+	/* High surrogate appended without its low surrogate yet */
+	private char high;
+
+	/** Flushes every {@link HttpOutput#getBufferSize()} bytes, which Jetty writes without copying **/
+	public Utf8Output(HttpOutput out, ByteBufferPool pool) {
+		this(out, pool, out.getBufferSize());
+	}
+
+	public Utf8Output(OutputStream out, ByteBufferPool pool, int size) {
+		this.out = out;
+		this.pool = pool;
+		this.size = size;
+		this.buffer = pool.acquire(size, false);
+		buffer.clear().limit(size);
+	}
+
+	/** Copy UTF-8 encoded {@code bytes} **/
+	public void write(byte[] bytes) throws IOException {
+		int offset = 0;
+		while(bytes.length - offset > buffer.remaining()) {
+			if(buffer.position() == 0) {
+				/* Larger than the buffer, so skip the copy */
+				out.write(bytes, offset, bytes.length - offset);
+				return;
+			}
+			int length = buffer.remaining();
+			buffer.put(bytes, offset, length);
+			offset += length;
+			drain();
+		}
+		buffer.put(bytes, offset, bytes.length - offset);
+	}
+
+	@Override
+	public Utf8Output append(CharSequence text) throws IOException {
+		return append(text, 0, text.length());
+	}
+
+	@Override
+	public Utf8Output append(CharSequence text, int start, int end) throws IOException {
+		for(int i = start; i < end; i++) {
+			append(text.charAt(i));
+		}
+		return this;
+	}
+
+	@Override
+	public Utf8Output append(char c) throws IOException {
+		/* Longest encoding of a character */
+		if(buffer.remaining() < 4) {
+			drain();
+		}
+		if(c < 0x80 && high == 0) {
+			buffer.put((byte)c);
+		} else {
+			encode(c);
+		}
+		return this;
+	}
+
+	private void encode(char c) {
+		if(high != 0) {
+			char previous = high;
+			high = 0;
+			if(Character.isLowSurrogate(c)) {
+				int code = Character.toCodePoint(previous, c);
+				buffer.put((byte)(0xF0 | code >> 18))
+					.put((byte)(0x80 | code >> 12 & 0x3F))
+					.put((byte)(0x80 | code >> 6 & 0x3F))
+					.put((byte)(0x80 | code & 0x3F));
+				return;
+			}
+			/* Unpaired surrogate, same replacement as the UTF-8 encoder */
+			buffer.put((byte)'?');
+		}
+
+		if(c < 0x80) {
+			buffer.put((byte)c);
+		} else if(c < 0x800) {
+			buffer.put((byte)(0xC0 | c >> 6))
+				.put((byte)(0x80 | c & 0x3F));
+		} else if(Character.isHighSurrogate(c)) {
+			high = c;
+		} else if(Character.isLowSurrogate(c)) {
+			buffer.put((byte)'?');
+		} else {
+			buffer.put((byte)(0xE0 | c >> 12))
+				.put((byte)(0x80 | c >> 6 & 0x3F))
+				.put((byte)(0x80 | c & 0x3F));
+		}
+	}
+
+	/** Write everything appended so far to the response **/
+	public void flush() throws IOException {
+		if(high != 0) {
+			high = 0;
+			buffer.put((byte)'?');
+		}
+		drain();
+		out.flush();
+	}
+
+	private void drain() throws IOException {
+		if(buffer.position() > 0) {
+			out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+			buffer.clear().limit(size);
+		}
+	}
+
+	/** Return the buffer to the pool, discarding anything not flushed **/
+	@Override
+	public void close() {
+		pool.release(buffer);
+	}
+}
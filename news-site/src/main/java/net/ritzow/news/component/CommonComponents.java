@@ -1,10 +1,9 @@
 package net.ritzow.news.component;
 
 import j2html.tags.DomContent;
-import j2html.tags.specialized.BodyTag;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.Optional;
 import net.ritzow.news.*;
 import net.ritzow.news.internal.SiteResources;
 import net.ritzow.news.page.Login;
@@ -12,10 +11,9 @@ import org.eclipse.jetty.server.Request;
 
 import static j2html.TagCreator.*;
 import static net.ritzow.news.PageTemplate.*;
-import static net.ritzow.news.ResponseUtil.contentPath;
 
 public class CommonComponents {
-	private static final BodyTag PAGE_BODY_HTML = body().withId("top").with(
+	private static final CompiledTemplate PAGE_BODY_HTML = CompiledTemplate.compile(body().withId("top").with(
 		div().withClass("page-centered").with(
 			named("full-content")
 		),
@@ -30,9 +28,16 @@ public class CommonComponents {
 				named("heap")
 			)
 		)
-	);
+	), "full-content", "time", "heap");
+	/* Cached pages are shown to many visitors for a while, so leave out the time and heap they were rendered with */
+	private static final CompiledTemplate CACHED_PAGE_BODY_HTML = CompiledTemplate.compile(body().withId("top").with(
+		div().withClass("page-centered").with(
+			named("full-content")
+		),
+		footer().withClasses("page-footer")
+	), "full-content");
 	/* HTML should use "named" content when a lage chunk of HTML has a small number of dynamic elements */
-	private static final DomContent CONTENT_HTML = each(
+	private static final CompiledTemplate CONTENT_HTML = CompiledTemplate.compile(each(
 		nav().withClasses("header", "foreground").with(named("header-content")),
 		div().withClasses("page-body").with(
 			div().withClass("content-left").with(
@@ -49,11 +54,11 @@ public class CommonComponents {
 				)
 			)
 		)
-	);
+	), "header-content", "content");
 	
-	private static final DomContent LOGO_HTML = logo(contentPath(SiteResources.RES_ICON));
+	private static final DomContent LOGO_HTML = logo(SiteResources.ICON_PATH);
 	
-	private static final DomContent STATIC_CENTERED_CONTENT = each(
+	private static final CompiledTemplate STATIC_CENTERED_CONTENT = CompiledTemplate.compile(each(
 		div().withClasses("page-body", "headerless-content").with(
 			div().withClass("content-left"),
 			mainBox(
@@ -61,7 +66,7 @@ public class CommonComponents {
 			),
 			div().withClass("content-right")
 		)
-	);
+	), "content");
 
 	private static final DomContent HEAD_STATICS = freeze(
 		meta().withName("robots").withContent("noindex"),
@@ -72,7 +77,7 @@ public class CommonComponents {
 	);
 	
 	public static DomContent page(String title, String iconPath,
-			String opensearchPath, String stylePath, Locale locale, DomContent fullContent) {
+			String opensearchPath, String stylePath, Locale locale, boolean cached, DomContent fullContent) {
 		return html().withLang(locale.toLanguageTag()).with(
 			head(
 				title(title),
@@ -86,27 +91,31 @@ public class CommonComponents {
 					.withType("application/opensearchdescription+xml")
 					.withTitle(NewsSite.websiteTitle()),
 				link().withRel("stylesheet")
-					.withHref(contentPath(SiteResources.RES_FONT_FACE)),
+					.withHref(SiteResources.FONT_FACE_PATH),
 				link().withRel("stylesheet")
 					.withHref(stylePath),
 				HEAD_STATICS
 			),
-			dynamic(PAGE_BODY_HTML, Map.of(
-				"full-content", fullContent,
-				"time", rawHtml(NewsSite.serverTime(locale)),
-				"heap", dynamic(state -> NewsSite.memoryUsage(locale))
-			))
+			cached ? CACHED_PAGE_BODY_HTML.fill(fullContent) : PAGE_BODY_HTML.fill(
+				fullContent,
+				rawHtml(NewsSite.serverTime(locale)),
+				dynamic(state -> NewsSite.memoryUsage(locale))
+			)
 		);
 	}
 
 	public static DomContent content(DomContent header, DomContent mainContent) {
-		return dynamic(CONTENT_HTML, Map.of("header-content", header, "content", mainContent));
+		return CONTENT_HTML.fill(header, mainContent);
 	}
 	
+	/** The header only differs by page locale and logged in user **/
+	private record HeaderKey(Locale locale, Optional<String> user) {}
+	
 	public static DomContent header(Request request, NewsSite site) {
 		List<Locale> locales = site.cm.getSupportedLocales();
 		Locale bestCurrent = HttpUser.bestLocale(request, locales);
-		return each(
+		Optional<String> user = HttpUser.getExistingSession(request).flatMap(SessionData::user);
+		return cached(site.fragments, new HeaderKey(bestCurrent, user), () -> each(
 			LOGO_HTML,
 			postForm()
 				.withClasses("lang-selector")
@@ -114,18 +123,17 @@ public class CommonComponents {
 				.with(
 					locales.stream().map(locale -> LangSelectComponent.langButton(locale, bestCurrent))
 				),
-				accountHeader(request)
-		);
+				accountHeader(user)
+		));
 	}
 	
-	private static DomContent accountHeader(Request request) {
-		return HttpUser.getExistingSession(request)
-			.flatMap(SessionData::user)
+	private static DomContent accountHeader(Optional<String> user) {
+		return user
 			.map(Login::loggedInForm)
 			.orElseGet(Login::loginForm);
 	}
 	
 	public static DomContent headerlessContent(DomContent... content) {
-		return dynamic(STATIC_CENTERED_CONTENT, Map.of("content", each(content)));
+		return STATIC_CENTERED_CONTENT.fill(each(content));
 	}
 }
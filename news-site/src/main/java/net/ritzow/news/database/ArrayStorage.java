@@ -0,0 +1,201 @@
+package net.ritzow.news.database;
+
+import io.permazen.kv.KVDatabase;
+import io.permazen.kv.array.ArrayKVDatabase;
+import io.permazen.kv.array.AtomicArrayKVStore;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link AtomicArrayKVStore} that compacts on a dedicated low priority thread, and also compacts
+ * once writes have been idle for a while so that bursts of writes are less likely to reach the high water mark.
+ **/
+public final class ArrayStorage implements StorageBackend {
+	private static final Logger LOG = LoggerFactory.getLogger(ArrayStorage.class);
+
+	/* File name prefixes used by AtomicArrayKVStore */
+	private static final String MODS_PREFIX = "mods.";
+	private static final List<String> ARRAY_PREFIXES = List.of("indx.", "keys.", "vals.");
+
+	/* Listing the directory is slow, so metrics show file sizes sampled after each compaction and at most this often */
+	private static final Duration SIZE_SAMPLE_INTERVAL = Duration.ofSeconds(5);
+
+	/**
+	 * @param lowWater Mod log size in bytes at which compaction is scheduled after {@code maxDelay}.
+	 * @param highWater Mod log size in bytes at which compaction starts immediately and writers block until it finishes.
+	 * @param maxDelay Longest time the mod log may contain unmerged writes.
+	 * @param idleDelay Compact this long after the last write, or never if zero.
+	 */
+	public record Compaction(int lowWater, int highWater, Duration maxDelay, Duration idleDelay) {
+		public static final Compaction DEFAULT = new Compaction(
+			AtomicArrayKVStore.DEFAULT_COMPACTION_LOW_WATER,
+			AtomicArrayKVStore.DEFAULT_COMPACTION_HIGH_WATER,
+			Duration.ofSeconds(AtomicArrayKVStore.DEFAULT_COMPACTION_MAX_DELAY),
+			Duration.ofSeconds(30)
+		);
+
+		public Compaction {
+			if(lowWater < 0 || highWater < lowWater) {
+				throw new IllegalArgumentException("Invalid compaction water marks " + lowWater + ", " + highWater);
+			}
+		}
+	}
+
+	/** @param modLogBytes Sampled after each compaction and at most every few seconds, like {@code arrayBytes} **/
+	public record Metrics(long compactions, Duration lastCompaction, Duration totalCompaction,
+		Duration writersBlocked, long modLogBytes, long arrayBytes) {}
+
+	private record Sizes(long modLog, long arrays, long sampled) {}
+
+	private final Path directory;
+	private final Compaction settings;
+	private final CompactionExecutor executor;
+	private AtomicArrayKVStore kvstore;
+	private ScheduledFuture<?> idle;
+	private volatile Sizes sizes;
+
+	ArrayStorage(Path directory, Compaction settings) {
+		this.directory = directory;
+		this.settings = settings;
+		this.executor = new CompactionExecutor();
+	}
+
+	@Override
+	public KVDatabase start() {
+		kvstore = new AtomicArrayKVStore();
+		kvstore.setDirectory(directory.toFile());
+		kvstore.setScheduledExecutorService(executor);
+		kvstore.setCompactLowWater(settings.lowWater());
+		kvstore.setCompactHighWater(settings.highWater());
+		kvstore.setCompactMaxDelay(Math.toIntExact(settings.maxDelay().toSeconds()));
+		var db = new ArrayKVDatabase();
+		db.setKVStore(kvstore);
+		db.start();
+		return db;
+	}
+
+	@Override
+	public synchronized void committed() {
+		if(settings.idleDelay().isZero()) {
+			return;
+		}
+		if(idle != null) {
+			idle.cancel(false);
+		}
+		idle = executor.scheduleIdleCheck(this::compactIfModified, settings.idleDelay());
+	}
+
+	@Override
+	public void stopped() {
+		executor.shutdownNow();
+	}
+
+	@Override
+	public Optional<Path> searchDirectory() {
+		/* The store warns about unknown files in its directory */
+		return Optional.of(directory.resolveSibling(directory.getFileName() + ".search"));
+	}
+
+	@Override
+	public Optional<Record> metrics() {
+		var sizes = sampledSizes();
+		return Optional.of(new Metrics(
+			executor.compactions.get(),
+			Duration.ofNanos(executor.lastNanos.get()),
+			Duration.ofNanos(executor.totalNanos.get()),
+			Duration.ofMillis(kvstore == null ? 0 : kvstore.getTotalMillisWaiting()),
+			sizes.modLog(),
+			sizes.arrays()
+		));
+	}
+
+	/* Runs on the compaction thread, so the scheduled compaction starts right after this returns */
+	private void compactIfModified() {
+		if(sizes().modLog() > 0) {
+			kvstore.scheduleCompaction();
+		}
+	}
+
+	private Sizes sampledSizes() {
+		var sampled = sizes;
+		if(sampled == null || System.nanoTime() - sampled.sampled() > SIZE_SAMPLE_INTERVAL.toNanos()) {
+			sampled = sizes();
+			sizes = sampled;
+		}
+		return sampled;
+	}
+
+	private Sizes sizes() {
+		long modLog = 0, arrays = 0;
+		try(var files = Files.list(directory)) {
+			for(var file : (Iterable<Path>)files::iterator) {
+				String name = file.getFileName().toString();
+				if(name.startsWith(MODS_PREFIX)) {
+					modLog += size(file);
+				} else if(ARRAY_PREFIXES.stream().anyMatch(name::startsWith)) {
+					arrays += size(file);
+				}
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return new Sizes(modLog, arrays, System.nanoTime());
+	}
+
+	private static long size(Path file) {
+		try {
+			return Files.size(file);
+		} catch(IOException e) {
+			/* Removed by a concurrent compaction */
+			return 0;
+		}
+	}
+
+	/** Single low priority thread that times the compactions scheduled on it by the store **/
+	private final class CompactionExecutor extends ScheduledThreadPoolExecutor {
+		final AtomicLong compactions = new AtomicLong(), lastNanos = new AtomicLong(), totalNanos = new AtomicLong();
+
+		CompactionExecutor() {
+			super(1, task -> {
+				var thread = new Thread(task, "compaction");
+				thread.setPriority(Thread.MIN_PRIORITY);
+				thread.setDaemon(true);
+				return thread;
+			});
+			setRemoveOnCancelPolicy(true);
+		}
+
+		/* The store only schedules compactions */
+		@Override
+		public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+			return super.schedule(() -> timed(command), delay, unit);
+		}
+
+		ScheduledFuture<?> scheduleIdleCheck(Runnable check, Duration delay) {
+			return super.schedule(check, delay.toNanos(), TimeUnit.NANOSECONDS);
+		}
+
+		private void timed(Runnable compaction) {
+			long start = System.nanoTime();
+			compaction.run();
+			long nanos = System.nanoTime() - start;
+			compactions.incrementAndGet();
+			lastNanos.set(nanos);
+			totalNanos.addAndGet(nanos);
+			/* Compaction moves the mod log into the arrays */
+			sizes = sizes();
+			LOG.atInfo().log("Compacted " + directory + " in " + Duration.ofNanos(nanos).toMillis() + " ms");
+		}
+	}
+}
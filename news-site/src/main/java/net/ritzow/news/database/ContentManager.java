@@ -1,28 +1,46 @@
 package net.ritzow.news.database;
 
+import io.permazen.JObject;
 import io.permazen.JTransaction;
 import io.permazen.Permazen;
 import io.permazen.PermazenFactory;
+import io.permazen.ValidationMode;
+import io.permazen.core.ObjId;
 import io.permazen.core.Database;
-import io.permazen.kv.array.ArrayKVDatabase;
-import io.permazen.kv.array.AtomicArrayKVStore;
+import io.permazen.index.Index;
 import io.permazen.tuple.Tuple2;
-import io.permazen.tuple.Tuple3;
+import io.permazen.tuple.Tuple4;
 import io.permazen.util.Bounds;
+import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
-import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.text.Collator;
+import java.time.DateTimeException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.NavigableSet;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import net.ritzow.news.Cryptography;
@@ -32,6 +50,8 @@ import net.ritzow.news.database.model.NewsAccount;
 import net.ritzow.news.database.model.NewsArticle;
 import net.ritzow.news.database.model.NewsComment;
 import net.ritzow.news.database.model.NewsContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public final class ContentManager {
 
@@ -43,32 +63,42 @@ public final class ContentManager {
 		Locale.of("zh")
 	);
 	
+	private static final Logger LOG = LoggerFactory.getLogger(ContentManager.class);
+	
 	private final Permazen pz;
+	private final StorageBackend storage;
 	private final SecureRandom random;
 	private final SearchIndex search;
+	private final ThreadLocal<ReadScope> readScope;
+	private final GroupCommitter writes;
+	private final List<Consumer<Published>> publishListeners;
+	private final AtomicLong generation;
+	
+	/**
+	 * Comment and account writes are committed in batches.
+	 * @param window Longest time the first write of a batch waits for more writes.
+	 * @param maxBatch Most writes committed in one transaction.
+	 */
+	public record GroupCommit(Duration window, int maxBatch) {
+		public static final GroupCommit DEFAULT = new GroupCommit(Duration.ofMillis(2), 64);
+
+		public GroupCommit {
+			if(window.isNegative() || maxBatch < 1) {
+				throw new IllegalArgumentException("Invalid group commit settings " + window + ", " + maxBatch);
+			}
+		}
+	}
 	
-	public ContentManager(Path dir) throws NoSuchAlgorithmException {
+	public ContentManager(StorageBackend storage, GroupCommit groupCommit) throws NoSuchAlgorithmException {
 		this.random = SecureRandom.getInstanceStrong();
 		
-		this.search = new SearchIndex();
-
-		ArrayKVDatabase impl = new ArrayKVDatabase();
-		var kvstore = new AtomicArrayKVStore();
-		kvstore.setDirectory(dir.toFile());
-		impl.setKVStore(kvstore);
-		impl.start();
-
-//		MVStoreAtomicKVStore implimpl = new MVStoreAtomicKVStore();
-//		implimpl.setBuilder(new Builder()
-				/* In-memory database */
-				/*.fileStore(new OffHeapStore())*/
-//			.fileName("target/database.permazen"));
-//		var impl = new MVStoreKVDatabase();
-//		impl.setKVStore(implimpl);
-//
-//		impl.start();
+		this.search = new SearchIndex(storage.searchDirectory());
+		this.readScope = new ThreadLocal<>();
+		this.publishListeners = new CopyOnWriteArrayList<>();
+		this.generation = new AtomicLong();
 		
-		var db = new Database(impl);
+		this.storage = storage;
+		var db = new Database(storage.start());
 		
 		db.getFieldTypeRegistry().add(new LocaleType());
 
@@ -80,66 +110,253 @@ public final class ContentManager {
 				NewsComment.class,
 				MarkdownString.class)
 			.newPermazen();
+		
+		writes = new GroupCommitter(pz, groupCommit, storage::committed);
+		
+		upgradeRevisions();
+		search.submit(read(tx -> unindexedRevisions(tx, search.committedThrough())));
+	}
+	
+	/**
+	 * Revisions stored before current revisions were marked all have "latest" cleared, and are missing from the
+	 * "timeline" and "current" indexes. Upgrades them and marks the newest revision of each article in each locale
+	 * as current. Only revisions from older schema versions are read, so later starts find nothing to do.
+	 **/
+	private void upgradeRevisions() {
+		var tx = pz.createTransaction();
+		try {
+			int current = tx.getTransaction().getSchema().getVersionNumber();
+			List<NewsContent> old = tx.queryVersion(NewsContent.class).entrySet().stream()
+				.filter(version -> version.getKey() != current)
+				.flatMap(version -> version.getValue().stream())
+				.toList();
+			if(old.isEmpty()) {
+				tx.rollback();
+				return;
+			}
+			
+			old.forEach(NewsContent::upgrade);
+			record ArticleLocale(NewsArticle article, Locale locale) {}
+			var newest = old.stream().collect(Collectors.toMap(
+				content -> new ArticleLocale(content.getArticle(), content.getLocale()),
+				Function.identity(),
+				BinaryOperator.maxBy(Comparator.comparing(NewsContent::getPublishTime))
+			));
+			newest.forEach((key, content) -> {
+				if(findCurrentContent(tx, key.article(), key.locale()).isEmpty()) {
+					content.setLatest(true);
+				}
+			});
+			tx.commit();
+			storage.committed();
+			LOG.atInfo().log("Upgraded " + old.size() + " article revisions from older schema versions");
+		} catch(RuntimeException e) {
+			tx.rollback();
+			throw e;
+		}
 	}
 	
-	public void shutdown() {
+	/* Revisions committed while a previous index commit was in progress can be stored slightly before it */
+	private static final Duration REINDEX_OVERLAP = Duration.ofMinutes(1);
+	
+	/** Current revisions that may be missing from a search index committed through {@code committedThrough} **/
+	private static List<SearchIndex.Revision> unindexedRevisions(JTransaction tx, Optional<Instant> committedThrough) {
+		var revisions = committedThrough.isEmpty() ? tx.getAll(NewsContent.class).stream() : 
+			tx.queryIndex(NewsContent.class, "storedTime", Instant.class)
+				.withValueBounds(Bounds.ge(committedThrough.orElseThrow().minus(REINDEX_OVERLAP)))
+				.asSet()
+				.stream()
+				.map(Tuple2::getValue2);
+		return revisions
+			.filter(NewsContent::isLatest)
+			.map(ContentManager::revision)
+			.toList();
+	}
+	
+	public void shutdown() throws InterruptedException {
+		writes.close();
+		search.close();
 		pz.getDatabase().getKVDatabase().stop();
+		storage.stopped();
+	}
+	
+	public Optional<Record> storageMetrics() {
+		return storage.metrics();
+	}
+	
+	public SearchIndex.Metrics searchMetrics() {
+		return search.metrics();
+	}
+	
+	public SearchIndex.CacheMetrics searchCacheMetrics() {
+		return search.cacheMetrics();
+	}
+	
+	/**
+	 * Share one read-only transaction between all reads made on the current thread until the returned
+	 * scope is closed. The transaction is created by the first read, so a scope that reads nothing costs nothing.
+	 **/
+	public ReadScope openReadScope() {
+		if(readScope.get() != null) {
+			throw new IllegalStateException("Read scope already open on thread " + Thread.currentThread().getName());
+		}
+		var scope = new ReadScope();
+		readScope.set(scope);
+		return scope;
 	}
 	
-	public SearchIndex searcher() {
-		return search;
+	/** Close the current thread's read scope, if any, so later reads use their own transactions **/
+	public void closeReadScope() {
+		var scope = readScope.get();
+		if(scope != null) {
+			scope.close();
+		}
 	}
 	
-	public Function<Long, Article<Reader>> searchLookup() {
-		//var tx = pz.createTransaction();
-		//findArticle(tx, )
-		//tx.rollback();
-		//TODO reimplement with permzen
-//						try(var db = ContentManager.this.db.getConnection(); 
-//							var st = db.prepareStatement("SELECT urlname FROM articles WHERE id = ?")) {
-//							st.setInt(1, value);
-//							var query = st.executeQuery();
-//							query.next();
-//							getLatestArticle(query.getString(1), lang, content)
-//								.ifPresent(docs::add);
-//						} catch(SQLException e) {
-//							throw new RuntimeException(e);
-//						}
-		return value -> null;
+	public final class ReadScope implements AutoCloseable {
+		private JTransaction tx;
+		
+		private ReadScope() {}
+		
+		private JTransaction transaction() {
+			return tx == null ? tx = newReadTransaction() : tx;
+		}
+
+		/** Can be closed more than once **/
+		@Override
+		public void close() {
+			if(readScope.get() == this) {
+				readScope.remove();
+			}
+			if(tx != null) {
+				tx.rollback();
+				tx = null;
+			}
+		}
+	}
+	
+	/* Reads never commit, so skip validation and let the key/value store discard write tracking */
+	private JTransaction newReadTransaction() {
+		var tx = pz.createTransaction(true, ValidationMode.DISABLED);
+		tx.getTransaction().setReadOnly(true);
+		return tx;
+	}
+	
+	/** Run {@code query} in the current read scope, or in its own read-only transaction if there is none **/
+	private <R> R read(Function<JTransaction, R> query) {
+		var scope = readScope.get();
+		if(scope != null) {
+			return query.apply(scope.transaction());
+		}
+		var tx = newReadTransaction();
+		try {
+			return query.apply(tx);
+		} finally {
+			tx.rollback();
+		}
+	}
+	
+	/** Current revisions matching {@code query} in any of {@code locales}, best match first, preferring earlier locales **/
+	public SearchIndex.Results search(String query, List<Locale> locales, Optional<SearchIndex.After> after, int limit) throws IOException {
+		return search.search(query, locales, after, limit);
+	}
+	
+	/** Titles of current revisions with words starting with {@code prefix}, for completing searches **/
+	public List<SearchIndex.Suggestion> suggest(String prefix, List<Locale> locales, int limit) throws IOException {
+		return search.suggest(prefix, locales, limit);
 	}
 	
 	public record Article3(String urlname, String title, Instant published) {}
 	
 	public Stream<Article3> getArticlesForLocale(Locale locale) {
-		var tx = pz.createTransaction();
-		return tx.queryIndex(NewsContent.class, "locale", Locale.class)
-			.withValueBounds(Bounds.eq(locale))
+		return read(tx -> tx.queryCompositeIndex(NewsContent.class, "current", Locale.class, Boolean.class, NewsArticle.class)
+			.withValue1Bounds(Bounds.eq(locale))
+			.withValue2Bounds(Bounds.eq(true))
 			.asSet()
 			.stream()
-			.map(Tuple2::getValue2)
-			.collect(Collectors.groupingBy(NewsContent::getArticle, Collectors.maxBy(Comparator.comparing(NewsContent::getPublishTime))))
-			.values()
-			.stream()
-			.flatMap(Optional::stream)
+			.map(Tuple4::getValue4)
 			.map(newsContent -> new Article3(newsContent.getArticle().getUrlName(), newsContent.getTitle(), newsContent.getPublishTime()))
 			.sorted(Comparator.comparing(ContentManager.Article3::title, Collator.getInstance(locale)))
-			.onClose(tx::rollback);
+			.toList()
+		).stream();
 	}
 
-	public Stream<Article3> getRecentArticlesForLocale(Locale locale) {
-		var tx = pz.createTransaction();
-		return tx.queryCompositeIndex(NewsContent.class, "recent", Locale.class, Instant.class)
-			.withValue1Bounds(Bounds.eq(locale))
-			.asSet()
-			.stream()
-			.map(Tuple3::getValue3)
-			//TODO need to sort by timestamp but group by article somehow.
-			//.collect(Collectors.groupingBy(NewsContent::getArticle, () -> new TreeMap<NewsArticle>(Comparator.), Collectors.maxBy(Comparator.comparing(NewsContent::getPublishTime))))
-			//.values()
-			//.stream()
-			//.flatMap(Optional::stream)
-			.map(newsContent -> new Article3(newsContent.getArticle().getUrlName(), newsContent.getTitle(), newsContent.getPublishTime()))
-			.onClose(tx::rollback);
+	/** Position in a newest-first list of articles or comments, exclusive **/
+	public record Cursor(Instant published, long id) {
+		private static final Pattern DELIM = Pattern.compile("\\.");
+		
+		/** Parse a cursor produced by {@link #toString()} **/
+		public static Optional<Cursor> parse(String cursor) {
+			String[] parts = DELIM.split(cursor);
+			if(parts.length != 3) {
+				return Optional.empty();
+			}
+			try {
+				return Optional.of(new Cursor(
+					Instant.ofEpochSecond(Long.parseLong(parts[0]), Long.parseLong(parts[1])),
+					new ObjId(parts[2]).asLong()
+				));
+			} catch(IllegalArgumentException | DateTimeException e) {
+				return Optional.empty();
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return published.getEpochSecond() + "." + published.getNano() + "." + new ObjId(id);
+		}
+	}
+	
+	public record RecentArticles(List<Article3> articles, Optional<Cursor> next) {}
+
+	/** 
+	 * Current revisions in {@code locale}, newest first, starting after {@code before} and returning at most {@code limit} articles.
+	 * Empty if {@code before} doesn't refer to an article revision, such as a forged cursor.
+	 **/
+	public Optional<RecentArticles> getRecentArticlesForLocale(Locale locale, Optional<Cursor> before, int limit) {
+		return read(tx -> {
+			Optional<NewsContent> after = before.flatMap(cursor -> cursorObject(tx, cursor, NewsContent.class));
+			if(before.isPresent() && after.isEmpty()) {
+				return Optional.empty();
+			}
+			
+			/* Descending iteration of a value-bounded index set skips everything when later locales exist, 
+			   so walk the index for this prefix instead */
+			Index<Instant, NewsContent> index = tx.queryCompositeIndex(NewsContent.class, "timeline", Locale.class, Boolean.class, Instant.class)
+				.asMapOfIndex()
+				.get(new Tuple2<>(locale, true));
+			if(index == null) {
+				return Optional.of(new RecentArticles(List.of(), Optional.empty()));
+			}
+			
+			NavigableSet<Tuple2<Instant, NewsContent>> recent = index.asSet();
+			if(after.isPresent()) {
+				recent = recent.headSet(new Tuple2<>(before.orElseThrow().published(), after.orElseThrow()), false);
+			}
+			
+			List<Article3> articles = new ArrayList<>(limit);
+			NewsContent last = null;
+			var it = recent.descendingIterator();
+			while(articles.size() < limit && it.hasNext()) {
+				last = it.next().getValue2();
+				articles.add(new Article3(last.getArticle().getUrlName(), last.getTitle(), last.getPublishTime()));
+			}
+			
+			return Optional.of(new RecentArticles(articles, it.hasNext() && last != null ? 
+				Optional.of(new Cursor(last.getPublishTime(), last.getObjId().asLong())) : Optional.empty()));
+		});
+	}
+	
+	/** The existing {@code type} object {@code cursor} refers to, cursors come from URLs so may refer to anything **/
+	private static <T extends JObject> Optional<T> cursorObject(JTransaction tx, Cursor cursor, Class<T> type) {
+		JObject object;
+		try {
+			object = tx.get(new ObjId(cursor.id()));
+		} catch(IllegalArgumentException e) {
+			/* Not a valid object ID, or of a type not in the schema */
+			return Optional.empty();
+		}
+		return type.isInstance(object) && object.exists() ? Optional.of(type.cast(object)) : Optional.empty();
 	}
 	
 	public List<Locale> getSupportedLocales() {
@@ -147,55 +364,134 @@ public final class ContentManager {
 	}
 	
 	public List<Locale> getArticleLocales(String urlname) {
+		return read(tx -> findArticle(tx, urlname)
+			.map(NewsArticle::getContent)
+			.stream()
+			.flatMap(Collection::stream)
+			.map(NewsContent::getLocale)
+			.distinct()
+			.toList()
+		);
+	}
+	
+	public void newArticle(String urlName, Locale locale, String title, String markdown) {
 		var tx = pz.createTransaction();
+		SearchIndex.Revision revision;
+		Published publish;
 		try {
-			return findArticle(tx, urlname)
-				.map(NewsArticle::getContent)
-				.stream()
-				.flatMap(Collection::stream)
-				.map(NewsContent::getLocale)
-				.distinct()
-				.toList();
-		} finally {
+			var article = findOrCreateArticle(tx, urlName, locale);
+			var content = addRevision(tx, article, locale, title, markdown, Instant.now());
+			revision = revision(content);
+			publish = published(content);
+			tx.commit();
+		} catch(RuntimeException e) {
 			tx.rollback();
+			throw e;
 		}
+		storage.committed();
+		/* Only committed revisions are searchable */
+		search.submit(List.of(revision));
+		publish(List.of(publish));
 	}
 	
-	public void newArticle(String urlName, Locale locale, String title, String markdown) {
+	public record ImportedArticle(String urlname, Locale locale, String title, String markdown, Instant published) {}
+	
+	/** Store all of {@code articles} in a single transaction. Revisions may arrive in any publish order. **/
+	public void importArticles(List<ImportedArticle> articles) {
 		var tx = pz.createTransaction();
+		List<SearchIndex.Revision> revisions;
+		List<Published> publish;
 		try {
-			var content = tx.create(NewsContent.class);
-
-			content.setTitle(title);
-			var md = tx.create(MarkdownString.class);
-			md.setContent(markdown);
-			content.setMarkdown(md);
-			content.setLocale(locale);
-			content.setPublishTime(Instant.now());
-
-			var article = findArticle(tx, urlName)
-				.orElse(null);
-
-			if(article == null) {
-				article = tx.create(NewsArticle.class);
-				article.setUrlName(urlName);
-				article.setOriginalLocale(locale);
+			/* Articles usually have several revisions or locales in the same batch */
+			Map<String, NewsArticle> found = new HashMap<>();
+			List<NewsContent> added = new ArrayList<>(articles.size());
+			for(var imported : articles) {
+				var article = found.computeIfAbsent(imported.urlname(), 
+					urlname -> findOrCreateArticle(tx, urlname, imported.locale()));
+				added.add(addRevision(tx, article, imported.locale(), imported.title(), imported.markdown(), imported.published()));
 			}
-
-			content.setArticle(article);
-			article.getContent().add(content);
-
-			//TODO need to undo this if there's a problem.
-			//TODO doesn't seem to have a way to multithread rollbacks of only some stuff so I have it disabled for now
-			//search.index(article.getObjId().asLong(), locale, title, markdown);
+			var current = added.stream()
+				.filter(NewsContent::isLatest)
+				.toList();
+			revisions = current.stream().map(ContentManager::revision).toList();
+			publish = current.stream().map(ContentManager::published).toList();
 			tx.commit();
 		} catch(RuntimeException e) {
 			tx.rollback();
 			throw e;
-		}/* catch(IOException e) {
-			tx.rollback();
-			throw new RuntimeException(e);
-		}*/
+		}
+		storage.committed();
+		search.submit(revisions);
+		publish(publish);
+	}
+	
+	/** A revision that became the current content of an article in its locale **/
+	public record Published(long revision, Locale locale, String markdown) {}
+	
+	/** Call {@code listener} with each committed current revision, on the committing thread **/
+	public void onPublish(Consumer<Published> listener) {
+		publishListeners.add(listener);
+	}
+	
+	/** Incremented after every committed article revision or comment **/
+	public long generation() {
+		return generation.get();
+	}
+	
+	/* Already committed, so a failing listener can't undo the publish or keep other listeners from seeing it */
+	private void publish(List<Published> revisions) {
+		generation.incrementAndGet();
+		for(var listener : publishListeners) {
+			for(var revision : revisions) {
+				try {
+					listener.accept(revision);
+				} catch(RuntimeException e) {
+					LOG.atError().setCause(e).log("Publish listener failed for revision " + revision.revision());
+				}
+			}
+		}
+	}
+	
+	private static Published published(NewsContent content) {
+		return new Published(content.getObjId().asLong(), content.getLocale(), content.getMarkdown().getContent());
+	}
+	
+	private static NewsArticle findOrCreateArticle(JTransaction tx, String urlName, Locale originalLocale) {
+		return findArticle(tx, urlName).orElseGet(() -> {
+			var article = tx.create(NewsArticle.class);
+			article.setUrlName(urlName);
+			article.setOriginalLocale(originalLocale);
+			return article;
+		});
+	}
+	
+	/** Add a revision, which becomes the current revision unless one in the same locale was published later **/
+	private static NewsContent addRevision(JTransaction tx, NewsArticle article, Locale locale, String title, String markdown, Instant published) {
+		var previous = findCurrentContent(tx, article, locale);
+		boolean latest = previous.map(p -> !published.isBefore(p.getPublishTime())).orElse(true);
+		if(latest) {
+			previous.ifPresent(p -> p.setLatest(false));
+		}
+		
+		var content = tx.create(NewsContent.class);
+		content.setTitle(title);
+		var md = tx.create(MarkdownString.class);
+		md.setContent(markdown);
+		content.setMarkdown(md);
+		content.setLocale(locale);
+		content.setPublishTime(published);
+		content.setStoredTime(Instant.now());
+		content.setLatest(latest);
+		content.setArticle(article);
+		article.getContent().add(content);
+		return content;
+	}
+	
+	private static SearchIndex.Revision revision(NewsContent content) {
+		return new SearchIndex.Revision(content.getArticle().getObjId().asLong(), content.getArticle().getUrlName(), content.getLocale(), 
+			content.getTitle(), content.getMarkdown().getContent(), 
+			/* Revisions stored before stored time was recorded */
+			Objects.requireNonNullElse(content.getStoredTime(), content.getPublishTime()));
 	}
 
 	private static Optional<NewsArticle> findArticle(JTransaction tx, String urlName) {
@@ -207,32 +503,38 @@ public final class ContentManager {
 			.map(Tuple2::getValue2);
 	}
 
-	/* Does not clear password parameter utf8 */
-	public void newAccount(String username, byte[] utf8) {
-		var tx = pz.createTransaction();
-		try {
+	/** The revision of {@code article} in {@code locale} that has not been superseded **/
+	private static Optional<NewsContent> findCurrentContent(JTransaction tx, NewsArticle article, Locale locale) {
+		return tx.queryCompositeIndex(NewsContent.class, "current", Locale.class, Boolean.class, NewsArticle.class)
+			.withValue1Bounds(Bounds.eq(locale))
+			.withValue2Bounds(Bounds.eq(true))
+			.withValue3Bounds(Bounds.eq(article))
+			.asSet()
+			.stream()
+			.findFirst()
+			.map(Tuple4::getValue4);
+	}
+
+	/** Does not clear password parameter utf8. Completes with the account's object ID once committed. **/
+	public CompletableFuture<Long> newAccount(String username, byte[] utf8) {
+		/* Hash on the calling thread to keep batches short */
+		byte[] salt = new byte[16];
+		random.nextBytes(salt);
+		byte[] hash = Cryptography.passwordHash(utf8, salt);
+		return writes.submit(tx -> {
 			var account = tx.create(NewsAccount.class);
 			account.setUsername(username);
-			byte[] salt = new byte[16];
-			random.nextBytes(salt);
 			account.setPwSalt(salt);
-			account.setPwHash(Cryptography.passwordHash(utf8, salt));
-			tx.commit();
-		} catch(RuntimeException e) {
-			tx.rollback();
-			throw e;
-		}
+			account.setPwHash(hash);
+			return account.getObjId().asLong();
+		});
 	}
 	
 	public boolean authenticateLogin(String username, byte[] password) {
-		var tx = pz.createTransaction();
-		try {
-			return findAccount(tx, username)
-				.map(newsAccount -> Arrays.equals(Cryptography.passwordHash(password, newsAccount.getPwSalt()), newsAccount.getPwHash()))
-				.orElse(false);
-		} finally {
-			tx.rollback();
-		}
+		return read(tx -> findAccount(tx, username)
+			.map(newsAccount -> Arrays.equals(Cryptography.passwordHash(password, newsAccount.getPwSalt()), newsAccount.getPwHash()))
+			.orElse(false)
+		);
 	}
 
 	private static Optional<NewsAccount> findAccount(JTransaction tx, String username) {
@@ -244,33 +546,63 @@ public final class ContentManager {
 			.map(Tuple2::getValue2);
 	}
 
-	public record Article<T>(String title, T content, int id) {}
+	/**
+	 * @param locale Locale of the revision, which may not be the requested one.
+	 * @param id Object ID of the revision, which never changes content.
+	 **/
+	public record Article<T>(String title, Locale locale, T content, long id) {}
 	
-	public <T> Optional<Article<T>> getLatestArticle(String urlName, Locale locale, Function<Reader, T> transform) {
-		var tx = pz.createTransaction();
-		try {
-			return findArticle(tx, urlName)
-				.map(a -> {
-					/* Find an article in the same language */
-					List<NewsContent> content = a.getContent();
-					var it = content.listIterator(content.size());
-					while(it.hasPrevious()) {
-						var c = it.previous();
-						//TODO take a list of locales and search in order.
-						if(c.getLocale().equals(locale)) {
-							return new Article<>(c.getTitle(), transform.apply(new StringReader(c.getMarkdown().getContent())), 0);
-						}
+	/** Transforms the markdown of a revision, which it only needs to read if it doesn't already have it **/
+	@FunctionalInterface
+	public interface RevisionTransform<T> {
+		T apply(long revision, Supplier<Reader> markdown);
+	}
+	
+	public <T> Optional<Article<T>> getLatestArticle(String urlName, List<Locale> locales, Function<Reader, T> transform) {
+		return getLatestArticle(urlName, locales, (revision, markdown) -> transform.apply(markdown.get()));
+	}
+	
+	/**
+	 * The current revision of {@code urlName} in the first of {@code locales} it has one in, or in another
+	 * supported locale of the same language. Otherwise the current revision in the locale the article was first
+	 * published in.
+	 **/
+	public <T> Optional<Article<T>> getLatestArticle(String urlName, List<Locale> locales, RevisionTransform<T> transform) {
+		return read(tx -> findArticle(tx, urlName)
+			.flatMap(a -> findPreferredContent(tx, a, locales))
+			.map(c -> new Article<>(c.getTitle(), c.getLocale(),
+				transform.apply(c.getObjId().asLong(), () -> new StringReader(c.getMarkdown().getContent())), 
+				c.getObjId().asLong()))
+		);
+	}
+	
+	/* Index seeks for each locale, so the article's revision history is never loaded */
+	private static Optional<NewsContent> findPreferredContent(JTransaction tx, NewsArticle article, List<Locale> locales) {
+		/* Languages already searched, so long Accept-Language headers don't repeat seeks */
+		Set<String> searched = new HashSet<>();
+		for(var locale : locales) {
+			if(!searched.add(locale.getLanguage())) {
+				continue;
+			}
+			var exact = findCurrentContent(tx, article, locale);
+			if(exact.isPresent()) {
+				return exact;
+			}
+			for(var supported : SUPPORTED_LOCALES) {
+				if(supported.getLanguage().equals(locale.getLanguage()) && !supported.equals(locale)) {
+					var content = findCurrentContent(tx, article, supported);
+					if(content.isPresent()) {
+						return content;
 					}
-					return null;
-				});
-		} finally {
-			tx.rollback();
+				}
+			}
 		}
+		return findCurrentContent(tx, article, article.getOriginalLocale());
 	}
 
-	public Optional<Long> newComment(String urlname, String user, Instant timestamp, String content) {
-		var tx = pz.createTransaction();
-		try {
+	/** Completes with the comment's object ID once committed, or empty if the article or user doesn't exist **/
+	public CompletableFuture<Optional<Long>> newComment(String urlname, String user, Instant timestamp, String content) {
+		return writes.submit(tx -> {
 			var article = findArticle(tx, urlname);
 			var account = findAccount(tx, user);
 			if(article.isPresent() && account.isPresent()) {
@@ -279,36 +611,55 @@ public final class ContentManager {
 				account.ifPresent(comment::setAuthor);
 				comment.setPostTime(timestamp);
 				comment.getContent().add(content);
-				tx.commit();
 				return Optional.of(comment.getObjId().asLong());
-			} else {
-				tx.rollback();
 			}
-		} catch(RuntimeException e) {
-			tx.rollback();
-			throw e;
-		}
-		return Optional.empty();
+			return Optional.<Long>empty();
+		}).thenApply(id -> {
+			id.ifPresent(committed -> generation.incrementAndGet());
+			return id;
+		});
 	}
 	
 	public record Comment(String username, Instant timestamp, String content, long id) {}
 	
-	public List<Comment> listCommentsNewestFirst(String urlname) {
-		var tx = pz.createTransaction();
-		try {
-			return findArticle(tx, urlname)
-				.stream()
-				.flatMap(newsArticle -> tx.queryIndex(NewsComment.class, "article", NewsArticle.class)
-					.withValueBounds(Bounds.eq(newsArticle))
-					.asSet()
-					.stream()
-					.map(Tuple2::getValue2)
-					.sorted(Comparator.comparing(NewsComment::getPostTime, Comparator.reverseOrder()))
-					.map(newsComment -> new Comment(newsComment.getAuthor().getUsername(), newsComment.getPostTime(),
-						newsComment.getContent().get(newsComment.getContent().size() - 1), newsComment.getObjId().asLong())))
-				.toList();
-		} finally {
-			tx.rollback();
-		}
+	public record Comments(List<Comment> comments, Optional<Cursor> next) {}
+	
+	/** 
+	 * Comments on {@code urlname}, newest first, starting after {@code before} and returning at most {@code limit} comments.
+	 * Empty if {@code before} doesn't refer to a comment, such as a forged cursor.
+	 **/
+	public Optional<Comments> listComments(String urlname, Optional<Cursor> before, int limit) {
+		return read(tx -> {
+			Optional<NewsComment> after = before.flatMap(cursor -> cursorObject(tx, cursor, NewsComment.class));
+			if(before.isPresent() && after.isEmpty()) {
+				return Optional.empty();
+			}
+			
+			Index<Instant, NewsComment> index = findArticle(tx, urlname)
+				.map(article -> tx.queryCompositeIndex(NewsComment.class, "thread", NewsArticle.class, Instant.class)
+					.asMapOfIndex()
+					.get(article))
+				.orElse(null);
+			if(index == null) {
+				return Optional.of(new Comments(List.of(), Optional.empty()));
+			}
+			
+			NavigableSet<Tuple2<Instant, NewsComment>> recent = index.asSet();
+			if(after.isPresent()) {
+				recent = recent.headSet(new Tuple2<>(before.orElseThrow().published(), after.orElseThrow()), false);
+			}
+			
+			List<Comment> comments = new ArrayList<>(limit);
+			NewsComment last = null;
+			var it = recent.descendingIterator();
+			while(comments.size() < limit && it.hasNext()) {
+				last = it.next().getValue2();
+				comments.add(new Comment(last.getAuthor().getUsername(), last.getPostTime(),
+					last.getContent().get(last.getContent().size() - 1), last.getObjId().asLong()));
+			}
+			
+			return Optional.of(new Comments(comments, it.hasNext() && last != null ? 
+				Optional.of(new Cursor(last.getPostTime(), last.getObjId().asLong())) : Optional.empty()));
+		});
 	}
 }
@@ -0,0 +1,164 @@
+package net.ritzow.news.database;
+
+import io.permazen.JTransaction;
+import io.permazen.Permazen;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import net.ritzow.news.database.ContentManager.GroupCommit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies writes submitted by many threads in shared transactions on a single writer thread,
+ * so a burst of writes costs one durable commit per batch instead of one per write.
+ **/
+final class GroupCommitter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GroupCommitter.class);
+
+	private static final class Write<R> {
+		final Function<JTransaction, R> mutation;
+		final CompletableFuture<R> result;
+		R value;
+
+		Write(Function<JTransaction, R> mutation) {
+			this.mutation = mutation;
+			this.result = new CompletableFuture<>();
+		}
+
+		void apply(JTransaction tx) {
+			value = mutation.apply(tx);
+		}
+
+		void complete() {
+			result.complete(value);
+		}
+	}
+
+	/* Queued by close() to stop the writer thread once earlier writes are committed */
+	private static final Write<?> STOP = new Write<>(tx -> null);
+
+	private final Permazen pz;
+	private final GroupCommit settings;
+	private final Runnable onCommit;
+	private final BlockingQueue<Write<?>> queue;
+	private final Thread writer;
+	private volatile boolean closed;
+
+	GroupCommitter(Permazen pz, GroupCommit settings, Runnable onCommit) {
+		this.pz = pz;
+		this.settings = settings;
+		this.onCommit = onCommit;
+		this.queue = new LinkedBlockingQueue<>();
+		this.writer = new Thread(this::run, "group-commit");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/** Run {@code mutation} in a transaction shared with other writes, completing with its result once committed **/
+	<R> CompletableFuture<R> submit(Function<JTransaction, R> mutation) {
+		if(closed) {
+			throw new IllegalStateException("Group commit is closed");
+		}
+		var write = new Write<>(mutation);
+		queue.add(write);
+		return write.result;
+	}
+
+	/** Commit all previously submitted writes and stop the writer thread **/
+	void close() throws InterruptedException {
+		closed = true;
+		queue.add(STOP);
+		writer.join();
+	}
+
+	private void run() {
+		List<Write<?>> batch = new ArrayList<>(settings.maxBatch());
+		try {
+			boolean stop = false;
+			while(!stop) {
+				Write<?> first = queue.take();
+				if(first == STOP) {
+					break;
+				}
+				batch.add(first);
+				long deadline = System.nanoTime() + settings.window().toNanos();
+				while(batch.size() < settings.maxBatch()) {
+					long remaining = deadline - System.nanoTime();
+					/* Past the deadline, still take writes that are already waiting */
+					Write<?> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if(next == null) {
+						break;
+					} else if(next == STOP) {
+						stop = true;
+						break;
+					}
+					batch.add(next);
+				}
+				try {
+					commit(batch);
+				} catch(VirtualMachineError e) {
+					/* Don't leave writers waiting on a thread that is gone */
+					closed = true;
+					batch.forEach(write -> write.result.completeExceptionally(e));
+					failQueued(e);
+					throw e;
+				} catch(Throwable e) {
+					LOG.atError().setCause(e).log("Failed to commit {} writes", batch.size());
+					batch.forEach(write -> write.result.completeExceptionally(e));
+				}
+				batch.clear();
+			}
+		} catch(InterruptedException e) {
+			batch.forEach(write -> write.result.completeExceptionally(e));
+		}
+
+		/* Anything that raced with close() */
+		failQueued(new IllegalStateException("Group commit is closed"));
+	}
+	
+	private void failQueued(Throwable cause) {
+		for(Write<?> write; (write = queue.poll()) != null;) {
+			write.result.completeExceptionally(cause);
+		}
+	}
+
+	private void commit(List<Write<?>> batch) {
+		var tx = pz.createTransaction();
+		try {
+			for(var write : batch) {
+				write.apply(tx);
+			}
+			tx.commit();
+		} catch(VirtualMachineError e) {
+			throw e;
+		} catch(Throwable e) {
+			try {
+				tx.rollback();
+			} catch(RuntimeException rollback) {
+				e.addSuppressed(rollback);
+			}
+			if(batch.size() == 1) {
+				batch.get(0).result.completeExceptionally(e);
+			} else {
+				/* Retry separately so one failing write doesn't fail the others */
+				for(var write : batch) {
+					commit(List.of(write));
+				}
+			}
+			return;
+		}
+		try {
+			onCommit.run();
+		} catch(RuntimeException e) {
+			/* The writes are durable regardless */
+			LOG.atError().setCause(e).log("Commit listener failed");
+		}
+		batch.forEach(Write::complete);
+	}
+}
@@ -1,36 +1,198 @@
 package net.ritzow.news.database;
 
 import java.io.IOException;
+import java.util.function.Predicate;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.commonmark.node.Block;
+import org.commonmark.node.Code;
+import org.commonmark.node.FencedCodeBlock;
+import org.commonmark.node.HardLineBreak;
+import org.commonmark.node.IndentedCodeBlock;
 import org.commonmark.node.Node;
+import org.commonmark.node.SoftLineBreak;
+import org.commonmark.node.Text;
 
+/**
+ * Tokens of the text in a parsed markdown document, without markup, link destinations or HTML.
+ * Each piece of text is analyzed separately while walking the document, and offsets refer to {@link #plainText(Node)}.
+ **/
 public class MarkdownTokenStream extends TokenStream {
-	
+
+	/* Keeps phrase queries from matching across paragraphs, headings and list items */
+	private static final int BLOCK_POSITION_GAP = 10;
+
+	private final CharTermAttribute term = addAttribute(CharTermAttribute.class);
+	private final PositionIncrementAttribute position = addAttribute(PositionIncrementAttribute.class);
+	private final OffsetAttribute offset = addAttribute(OffsetAttribute.class);
+
 	private final Node markdown;
-	private final Node current;
-	
-	public MarkdownTokenStream(Node markdown) {
+	private final Analyzer analyzer;
+	private final String field;
+	private final Predicate<Node> include;
+
+	private Walk walk;
+	private TokenStream segment;
+	private CharTermAttribute segmentTerm;
+	private PositionIncrementAttribute segmentPosition;
+	private OffsetAttribute segmentOffset;
+	private int segmentStart;
+	private boolean blockGap, emitted;
+
+	/**
+	 * @param analyzer Analyzes each piece of text as {@code field}.
+	 * @param include Whether to emit tokens for a text node.
+	 */
+	public MarkdownTokenStream(Node markdown, Analyzer analyzer, String field, Predicate<Node> include) {
 		this.markdown = markdown;
-		this.current = markdown;
+		this.analyzer = analyzer;
+		this.field = field;
+		this.include = include;
 	}
-	
+
+	/** The text of {@code markdown}, with blocks separated by newlines **/
+	public static String plainText(Node markdown) {
+		var text = new StringBuilder();
+		var walk = new Walk(markdown);
+		for(String literal; (literal = walk.next()) != null;) {
+			if(walk.block && !text.isEmpty()) {
+				text.append('\n');
+			}
+			text.append(literal);
+		}
+		return text.toString();
+	}
+
 	@Override
 	public boolean incrementToken() throws IOException {
+		while(true) {
+			if(segment == null && !nextSegment()) {
+				return false;
+			}
+
+			if(segment.incrementToken()) {
+				clearAttributes();
+				term.copyBuffer(segmentTerm.buffer(), 0, segmentTerm.length());
+				int increment = segmentPosition.getPositionIncrement();
+				if(blockGap && emitted) {
+					increment += BLOCK_POSITION_GAP;
+				}
+				position.setPositionIncrement(increment);
+				offset.setOffset(segmentStart + segmentOffset.startOffset(), segmentStart + segmentOffset.endOffset());
+				blockGap = false;
+				emitted = true;
+				return true;
+			}
+
+			segment.end();
+			segment.close();
+			segment = null;
+		}
+	}
+
+	private boolean nextSegment() throws IOException {
+		String text;
+		while((text = walk.next()) != null) {
+			blockGap |= walk.block;
+			if(include.test(walk.node)) {
+				segmentStart = walk.start;
+				/* Language analyzers reuse one stream per thread for all fields, so only one segment is open at a time,
+				   and the content and emphasis fields rely on the index writer consuming fields one after another */
+				segment = analyzer.tokenStream(field, text);
+				segmentTerm = segment.addAttribute(CharTermAttribute.class);
+				segmentPosition = segment.addAttribute(PositionIncrementAttribute.class);
+				segmentOffset = segment.addAttribute(OffsetAttribute.class);
+				segment.reset();
+				return true;
+			}
+		}
 		return false;
 	}
 
 	@Override
 	public void end() throws IOException {
 		super.end();
+		offset.setOffset(walk.end, walk.end);
 	}
 
 	@Override
 	public void reset() throws IOException {
 		super.reset();
+		walk = new Walk(markdown);
+		blockGap = false;
+		emitted = false;
 	}
 
 	@Override
 	public void close() throws IOException {
+		if(segment != null) {
+			segment.close();
+			segment = null;
+		}
 		super.close();
 	}
+
+	/** Depth first walk over the text nodes of a document **/
+	private static final class Walk {
+		private final Node root;
+		Node node;
+		/* Position of the current text in the plain text, and whether a block started since the previous text */
+		int start, end;
+		boolean block;
+
+		Walk(Node root) {
+			this.root = root;
+			this.node = root;
+		}
+
+		/** The next text, or null at the end of the document **/
+		String next() {
+			block = false;
+			if(node == null) {
+				return null;
+			}
+			while((node = successor(node)) != null) {
+				if(node instanceof Block) {
+					block = true;
+				}
+				String text = literal(node);
+				if(text != null && !text.isEmpty()) {
+					start = block && end > 0 ? end + 1 : end;
+					end = start + text.length();
+					return text;
+				}
+			}
+			return null;
+		}
+
+		private Node successor(Node current) {
+			if(current.getFirstChild() != null) {
+				return current.getFirstChild();
+			}
+			while(current != root && current.getNext() == null) {
+				current = current.getParent();
+			}
+			return current == root ? null : current.getNext();
+		}
+
+		private static String literal(Node node) {
+			if(node instanceof Text text) {
+				return text.getLiteral();
+			} else if(node instanceof Code code) {
+				return code.getLiteral();
+			} else if(node instanceof FencedCodeBlock code) {
+				return code.getLiteral();
+			} else if(node instanceof IndentedCodeBlock code) {
+				return code.getLiteral();
+			} else if(node instanceof SoftLineBreak) {
+				return " ";
+			} else if(node instanceof HardLineBreak) {
+				return "\n";
+			}
+			return null;
+		}
+	}
 }
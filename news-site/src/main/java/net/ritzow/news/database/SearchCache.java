@@ -0,0 +1,84 @@
+package net.ritzow.news.database;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import net.ritzow.news.database.SearchIndex.After;
+import net.ritzow.news.database.SearchIndex.CacheMetrics;
+import net.ritzow.news.database.SearchIndex.Results;
+import org.apache.lucene.search.ReferenceManager;
+
+/**
+ * Least recently used search results. Results are tagged with the searcher generation they were found in,
+ * and every refresh that changes the searcher starts a new generation and drops the cached results.
+ **/
+final class SearchCache implements ReferenceManager.RefreshListener {
+
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	/** Searches that differ only in case or spacing share a key, since every analyzer ignores both **/
+	record Key(String query, List<String> languages, Optional<After> after, int limit) {
+		Key {
+			query = WHITESPACE.matcher(query.strip()).replaceAll(" ").toLowerCase(Locale.ROOT);
+		}
+	}
+
+	private record Entry(long generation, Results results) {}
+
+	private final Map<Key, Entry> entries;
+	private long generation, hits, misses, evictions, invalidations;
+
+	SearchCache(int capacity) {
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if(size() > capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/** Generation to {@link #put} results with, read before acquiring the searcher they are found with **/
+	synchronized long generation() {
+		return generation;
+	}
+
+	synchronized Optional<Results> get(Key key) {
+		var entry = entries.get(key);
+		if(entry != null && entry.generation() == generation) {
+			hits++;
+			return Optional.of(entry.results());
+		}
+		misses++;
+		return Optional.empty();
+	}
+
+	/** Cache {@code results} unless the searcher has been refreshed since {@code generation} **/
+	synchronized void put(Key key, long generation, Results results) {
+		if(generation == this.generation) {
+			entries.put(key, new Entry(generation, results));
+		}
+	}
+
+	synchronized CacheMetrics metrics() {
+		return new CacheMetrics(hits, misses, evictions, invalidations, entries.size());
+	}
+
+	@Override
+	public void beforeRefresh() {}
+
+	@Override
+	public synchronized void afterRefresh(boolean didRefresh) {
+		if(didRefresh) {
+			generation++;
+			invalidations += entries.size();
+			entries.clear();
+		}
+	}
+}
@@ -1,92 +1,561 @@
 package net.ritzow.news.database;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.DelegatingAnalyzerWrapper;
+import org.apache.lucene.analysis.cjk.CJKAnalyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.es.SpanishAnalyzer;
+import org.apache.lucene.analysis.ru.RussianAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.SearcherManager;
-import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.PassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
 import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.QueryBuilder;
+import org.commonmark.node.Emphasis;
+import org.commonmark.node.Heading;
+import org.commonmark.node.Node;
+import org.commonmark.node.StrongEmphasis;
+import org.commonmark.parser.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Full text index of the current article revisions. Revisions are indexed in order on a single thread
+ * after they are committed, and become searchable once the batch they arrived in has been indexed.
+ * The searcher is reopened in the background, so searches never wait for a refresh.
+ **/
 public class SearchIndex {
+	private static final Logger LOG = LoggerFactory.getLogger(SearchIndex.class);
 
-	private static final Pattern WORD_DELIM = Pattern.compile("\\s+");
+	/** Current revision of article {@code id} in {@code locale}, written to the database at {@code stored} **/
+	public record Revision(long id, String urlname, Locale locale, String title, String markdown, Instant stored) {}
 
+	/** Article {@code id} matched in {@code locale}, with an HTML {@code snippet} of its text that highlights the matches **/
+	public record Hit(long id, String urlname, Locale locale, String title, String snippet) {}
+
+	public record Results(List<Hit> hits, Optional<After> next) {}
+
+	public record Suggestion(String title, String urlname) {}
+
+	/**
+	 * @param evictions Results dropped to make room for others.
+	 * @param invalidations Results dropped because new documents became searchable.
+	 */
+	public record CacheMetrics(long hits, long misses, long evictions, long invalidations, int size) {}
+
+	/** Position after the last result of a page of results. Pages may overlap or skip results if the index changes in between. **/
+	public record After(float score, int doc) {
+		private static final Pattern DELIM = Pattern.compile("\\.");
+
+		/** Parse a position produced by {@link #toString()} **/
+		public static Optional<After> parse(String after) {
+			String[] parts = DELIM.split(after);
+			if(parts.length != 2) {
+				return Optional.empty();
+			}
+			try {
+				return Optional.of(new After(Float.intBitsToFloat(Integer.parseUnsignedInt(parts[0], 16)), Integer.parseInt(parts[1])));
+			} catch(NumberFormatException e) {
+				return Optional.empty();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return Integer.toHexString(Float.floatToIntBits(score)) + "." + doc;
+		}
+	}
+
+	/**
+	 * @param lastLag Time from submitting the last indexed batch until it was searchable.
+	 * @param maxLag Longest time any batch took to become searchable.
+	 */
+	public record Metrics(long indexed, long pending, Duration lastLag, Duration maxLag) {}
+
+	private record Queued(Revision revision, long submitted) {}
+
+	/* Queued by close() to stop the indexing thread once earlier revisions are indexed */
+	private static final Queued STOP = new Queued(null, 0);
+
+	/* Commit data key for the newest stored time of all revisions in the committed index */
+	private static final String STORED_THROUGH = "stored-through";
+
+	/* Indexes committed with a different format are rebuilt. Change when changing how documents are analyzed. */
+	private static final String FORMAT = "format", CURRENT_FORMAT = "6";
+
+	private static final Parser PARSER = Parser.builder().build();
+
+	/* Text is stored with its offsets so snippets don't need the database or re-analysis */
+	private static final FieldType CONTENT_TYPE = new FieldType(TextField.TYPE_STORED);
+	static {
+		CONTENT_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+		CONTENT_TYPE.freeze();
+	}
+
+	/* Stored fields needed for results and for suggestions */
+	private static final Set<String> HIT_FIELDS = Set.of("id", "urlname", "lang", "title"),
+		SUGGESTION_FIELDS = Set.of("id", "urlname", "lang", "title", "stored");
+
+	private static final PassageFormatter SNIPPET_FORMAT = new DefaultPassageFormatter("<mark>", "</mark>", "\u2026 ", true);
+
+	/* Passages per snippet */
+	private static final int SNIPPET_PASSAGES = 2;
+
+	/* Most pages of results cached */
+	private static final int CACHE_CAPACITY = 1024;
+
+	/* Searches may see an index this stale, and indexing waits at most this long for its changes to be searchable */
+	private static final double MAX_STALE_SEC = 1.0, MIN_STALE_SEC = 0.025;
+
+	/* Durably commit the index at most this often while indexing, and after this long with nothing to index */
+	private static final Duration COMMIT_INTERVAL = Duration.ofSeconds(10);
+
+	private final LanguageAnalyzer analyzer;
+	private final TitleSuggestions suggestions;
 	private final IndexWriter indexer;
 	private final SearcherManager searcher;
+	private final SearchCache cache;
+	private final ControlledRealTimeReopenThread<IndexSearcher> reopen;
+	private final Optional<Instant> committedThrough;
+	private final BlockingQueue<Queued> queue;
+	private final Thread worker;
+	private final AtomicLong indexed, lastLagNanos, maxLagNanos;
 
-	public SearchIndex() {
+	/** Open or create the index in {@code directory}, or keep it in memory if empty **/
+	public SearchIndex(Optional<Path> directory) {
 		try {
-			//Look into NRTManager
-			//https://blog.mikemccandless.com/2011/11/near-real-time-readers-with-lucenes.html
-			//Use NRTCachingDirectory when replacing ByteBuffersDirectory with disk directory
-			indexer = new IndexWriter(new NRTCachingDirectory(new ByteBuffersDirectory(), 16, 32), new IndexWriterConfig(new StandardAnalyzer()));
+			analyzer = new LanguageAnalyzer();
+			suggestions = new TitleSuggestions(analyzer::forLanguage);
 			//https://blog.mikemccandless.com/2011/11/near-real-time-readers-with-lucenes.html
+			Directory store = directory.isPresent() ? 
+				new NRTCachingDirectory(new MMapDirectory(directory.orElseThrow()), 16, 32) : new ByteBuffersDirectory();
+			indexer = new IndexWriter(store, new IndexWriterConfig(analyzer));
+			var data = commitData(indexer);
+			if(CURRENT_FORMAT.equals(data.get(FORMAT))) {
+				committedThrough = Optional.ofNullable(data.get(STORED_THROUGH)).map(Instant::parse);
+			} else {
+				indexer.deleteAll();
+				committedThrough = Optional.empty();
+			}
 			//TODO applyAllDeletes false can improve performance.
 			searcher = new SearcherManager(indexer, null);
+			cache = new SearchCache(CACHE_CAPACITY);
+			searcher.addListener(cache);
+			reopen = new ControlledRealTimeReopenThread<>(indexer, searcher, MAX_STALE_SEC, MIN_STALE_SEC);
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		reopen.setName("search-reopen");
+		reopen.setDaemon(true);
+		reopen.start();
+		queue = new LinkedBlockingQueue<>();
+		indexed = new AtomicLong();
+		lastLagNanos = new AtomicLong();
+		maxLagNanos = new AtomicLong();
+		worker = new Thread(this::run, "search-index");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/** Index {@code revisions} on the indexing thread, replacing any earlier revision of the same article and locale **/
+	public void submit(Collection<Revision> revisions) {
+		long now = System.nanoTime();
+		for(var revision : revisions) {
+			queue.add(new Queued(revision, now));
+		}
+	}
+
+	/**
+	 * The newest stored time of the revisions in the index as of its last durable commit.
+	 * Revisions stored since may be missing from the index. Empty for a new index.
+	 **/
+	public Optional<Instant> committedThrough() {
+		return committedThrough;
+	}
+
+	/** Index and commit everything submitted so far, then stop indexing **/
+	public void close() throws InterruptedException {
+		queue.add(STOP);
+		worker.join();
+		try {
+			reopen.close();
+			searcher.close();
+			indexer.close();
+			suggestions.close();
+			analyzer.close();
 		} catch(IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	public Stream<Long> search(String query, Locale lang) throws IOException {
-		searcher.maybeRefresh();
+	public CacheMetrics cacheMetrics() {
+		return cache.metrics();
+	}
+
+	public Metrics metrics() {
+		return new Metrics(
+			indexed.get(),
+			queue.size(),
+			Duration.ofNanos(lastLagNanos.get()),
+			Duration.ofNanos(maxLagNanos.get())
+		);
+	}
+
+	/**
+	 * Best matching articles in any of {@code locales}, preferring matches in earlier locales, best first.
+	 * @param after Continue from a position returned with a previous page of results.
+	 **/
+	public Results search(String query, List<Locale> locales, Optional<After> after, int limit) throws IOException {
+		List<String> languages = locales.stream().map(Locale::getLanguage).distinct().toList();
+		var key = new SearchCache.Key(query, languages, after, limit);
+		var cached = cache.get(key);
+		if(cached.isPresent()) {
+			return cached.orElseThrow();
+		}
+		
+		var builder = new QueryBuilder(analyzer);
+		var anyLanguage = new BooleanQuery.Builder();
+		for(int i = 0; i < languages.size(); i++) {
+			Query match = languageQuery(builder, query, languages.get(i));
+			/* Nothing left to search for after analysis, such as only stop words */
+			if(match != null) {
+				anyLanguage.add(new BoostQuery(match, 1f / (i + 1)), Occur.SHOULD);
+			}
+		}
+		var query1 = anyLanguage.build();
+		if(query1.clauses().isEmpty()) {
+			return new Results(List.of(), Optional.empty());
+		}
+
+		long generation = cache.generation();
 		var search = searcher.acquire();
 		try {
-			var builder = new PhraseQuery.Builder().setSlop(5);
-			WORD_DELIM.splitAsStream(query).forEachOrdered(token -> builder.add(new Term("content", token)));
-			var query1 = new BooleanQuery.Builder()
-				.add(builder.build(), Occur.MUST)
-				//TODO match a list of langs in order instead of exact
-				.add(new TermQuery(new Term("lang", lang.toLanguageTag())), Occur.MUST)
-				.build(); //new StandardQueryParser(new StandardAnalyzer()).parse(query, "content");
-			var results = search.search(query1, TopScoreDocCollector.createSharedManager(10, null, 10));
-
-			return Stream.empty(); /*Stream.of(results.scoreDocs)
-				.map(result -> {
-					search.getIndexReader().document(result.doc, new StoredFieldVisitor() {
-						private boolean finished;
-						@Override
-						public Status needsField(FieldInfo fieldInfo) {
-							if(fieldInfo.getName().equals("id")) {
-								finished = true;
-								return Status.YES;
-							}
-							return finished ? Status.STOP : Status.NO;
-						}
+			/* Enough to fill the page when most articles match in every language */
+			int count = limit * languages.size();
+			List<Document> documents = new ArrayList<>(limit);
+			List<ScoreDoc> page = new ArrayList<>(limit);
+			ScoreDoc last = after.map(position -> new ScoreDoc(position.doc(), position.score())).orElse(null);
+			boolean more = true;
+			while(more && page.size() < limit) {
+				TopDocs top = search.searchAfter(last, query1, count);
+				/* A full result list may be followed by more results */
+				more = top.scoreDocs.length == count;
+				List<Document> matched = new ArrayList<>(top.scoreDocs.length);
+				for(var result : top.scoreDocs) {
+					matched.add(search.doc(result.doc, HIT_FIELDS));
+				}
+				Map<Long, Integer> best = bestDocuments(search, query1, matched);
+				for(int i = 0; i < top.scoreDocs.length; i++) {
+					if(page.size() == limit) {
+						more = true;
+						break;
+					}
+					last = top.scoreDocs[i];
+					if(best.get(articleId(matched.get(i))) == last.doc) {
+						documents.add(matched.get(i));
+						page.add(last);
+					}
+				}
+			}
+
+			var snippets = UnifiedHighlighter.builder(search, analyzer)
+				.withFormatter(SNIPPET_FORMAT)
+				.build()
+				.highlightFields(
+					languages.stream().map(language -> field("content", language)).toArray(String[]::new),
+					query1,
+					page.stream().mapToInt(result -> result.doc).toArray(),
+					languages.stream().mapToInt(language -> SNIPPET_PASSAGES).toArray()
+				);
 
-						@Override
-						public void longField(FieldInfo fieldInfo, long value) {
-							if(fieldInfo.getName().equals("id")) {
-								yield value;
-							}
+			List<Hit> hits = new ArrayList<>(page.size());
+			for(int i = 0; i < documents.size(); i++) {
+				var document = documents.get(i);
+				var locale = Locale.forLanguageTag(document.get("lang"));
+				String snippet = snippets.get(field("content", locale.getLanguage()))[i];
+				hits.add(new Hit(
+					articleId(document),
+					document.get("urlname"),
+					locale,
+					document.get("title"),
+					Objects.requireNonNullElse(snippet, "")
+				));
+			}
+
+			var results = new Results(hits, more && last != null ? Optional.of(new After(last.score, last.doc)) : Optional.empty());
+			cache.put(key, generation, results);
+			return results;
+		} finally {
+			searcher.release(search);
+		}
+	}
+
+	/**
+	 * An article can match in each of its languages, but is only listed once, as its best match.
+	 * Finds the best matching document of each article in {@code matched}, including documents
+	 * on earlier pages, so an article listed on one page is skipped on the pages after it.
+	 **/
+	private static Map<Long, Integer> bestDocuments(IndexSearcher search, Query query, List<Document> matched) throws IOException {
+		var articles = matched.stream().map(document -> new BytesRef(Long.toString(articleId(document)))).distinct().toList();
+		Map<Long, Integer> best = new HashMap<>();
+		if(articles.isEmpty()) {
+			return best;
+		}
+		var ofArticles = new BooleanQuery.Builder()
+			.add(query, Occur.MUST)
+			.add(new TermInSetQuery("article", articles), Occur.FILTER)
+			.build();
+		/* Sorted the same way as the results, so the first document of each article is its best */
+		for(var result : search.search(ofArticles, search.count(ofArticles)).scoreDocs) {
+			best.putIfAbsent(articleId(search.doc(result.doc, HIT_FIELDS)), result.doc);
+		}
+		return best;
+	}
+
+	private static long articleId(Document document) {
+		return document.getField("id").numericValue().longValue();
+	}
+
+	/** Titles with words starting with {@code prefix} in any of {@code locales}, preferring earlier locales and newer articles **/
+	public List<Suggestion> suggest(String prefix, List<Locale> locales, int limit) throws IOException {
+		return suggestions.lookup(prefix, locales, limit);
+	}
+
+	private static Query languageQuery(QueryBuilder builder, String query, String language) {
+		Query title = builder.createBooleanQuery(field("title", language), query, Occur.MUST);
+		Query content = builder.createBooleanQuery(field("content", language), query, Occur.MUST);
+		if(title == null || content == null) {
+			return null;
+		}
+
+		var terms = new BooleanQuery.Builder()
+			.add(title, Occur.SHOULD)
+			.add(content, Occur.SHOULD)
+			.setMinimumNumberShouldMatch(1)
+			.build();
+
+		return new BooleanQuery.Builder()
+			.add(terms, Occur.MUST)
+			/* Rank words that appear close together higher */
+			.add(builder.createPhraseQuery(field("content", language), query, 5), Occur.SHOULD)
+			.add(new BoostQuery(builder.createBooleanQuery(field("emphasis", language), query), 2), Occur.SHOULD)
+			.build();
+	}
+
+	private void run() {
+		try {
+			loadSuggestions();
+		} catch(IOException | RuntimeException e) {
+			LOG.atError().setCause(e).log("Failed to load title suggestions");
+		}
+		
+		List<Queued> batch = new ArrayList<>();
+		Instant storedThrough = committedThrough.orElse(Instant.MIN);
+		boolean uncommitted = false;
+		long lastCommit = System.nanoTime();
+		boolean stop = false;
+		while(!stop) {
+			try {
+				var first = queue.poll(COMMIT_INTERVAL.toNanos(), TimeUnit.NANOSECONDS);
+				if(first != null) {
+					batch.add(first);
+					queue.drainTo(batch);
+				}
+			} catch(InterruptedException e) {
+				break;
+			}
+			stop = batch.removeIf(queued -> queued == STOP);
+			try {
+				if(!batch.isEmpty()) {
+					long generation = 0;
+					Instant batchThrough = storedThrough;
+					for(var queued : batch) {
+						var revision = queued.revision();
+						generation = indexer.updateDocument(key(revision), document(revision));
+						suggestions.put(revision.id(), revision.locale(), revision.title(), revision.urlname(), revision.stored().toEpochMilli());
+						if(revision.stored().isAfter(batchThrough)) {
+							batchThrough = revision.stored();
 						}
 					}
-				});*/
+					reopen.waitForGeneration(generation);
+					suggestions.refresh();
+					/* Only advanced by batches that were indexed */
+					storedThrough = batchThrough;
+					
+					/* Batches are in submit order, so the first revision waited longest */
+					long lag = System.nanoTime() - batch.get(0).submitted();
+					lastLagNanos.set(lag);
+					maxLagNanos.accumulateAndGet(lag, Math::max);
+					indexed.addAndGet(batch.size());
+					uncommitted = true;
+				}
+				
+				if(uncommitted && (stop || batch.isEmpty() || System.nanoTime() - lastCommit > COMMIT_INTERVAL.toNanos())) {
+					indexer.setLiveCommitData(Map.of(FORMAT, CURRENT_FORMAT, STORED_THROUGH, storedThrough.toString()).entrySet());
+					indexer.commit();
+					lastCommit = System.nanoTime();
+					uncommitted = false;
+				}
+			} catch(IOException | RuntimeException e) {
+				/* Keep indexing later revisions, a bad revision shouldn't stop search from updating */
+				LOG.atError().setCause(e).log("Failed to index " + batch.size() + " article revisions");
+			} catch(InterruptedException e) {
+				break;
+			}
+			batch.clear();
+		}
+	}
+
+	/* Suggestions are only kept in memory, so start with the titles already indexed */
+	private void loadSuggestions() throws IOException {
+		var search = searcher.acquire();
+		try {
+			for(var leaf : search.getIndexReader().leaves()) {
+				var reader = leaf.reader();
+				var live = reader.getLiveDocs();
+				for(int doc = 0; doc < reader.maxDoc(); doc++) {
+					if(live == null || live.get(doc)) {
+						var document = reader.document(doc, SUGGESTION_FIELDS);
+						suggestions.put(
+							document.getField("id").numericValue().longValue(),
+							Locale.forLanguageTag(document.get("lang")),
+							document.get("title"),
+							document.get("urlname"),
+							document.getField("stored").numericValue().longValue()
+						);
+					}
+				}
+			}
 		} finally {
 			searcher.release(search);
 		}
+		suggestions.refresh();
+	}
+
+	private static Map<String, String> commitData(IndexWriter indexer) {
+		Map<String, String> data = new HashMap<>();
+		var entries = indexer.getLiveCommitData();
+		if(entries != null) {
+			entries.forEach(entry -> data.put(entry.getKey(), entry.getValue()));
+		}
+		return data;
+	}
+
+	private static Term key(Revision revision) {
+		return new Term("key", revision.id() + "/" + revision.locale().toLanguageTag());
+	}
+
+	private Document document(Revision revision) {
+		var markdown = PARSER.parse(revision.markdown());
+		var document = new Document();
+		document.add(new StringField("key", key(revision).text(), Store.NO));
+		document.add(new StringField("article", Long.toString(revision.id()), Store.NO));
+		document.add(new StoredField("id", revision.id()));
+		document.add(new StoredField("urlname", revision.urlname()));
+		document.add(new StoredField("lang", revision.locale().toLanguageTag()));
+		document.add(new StoredField("title", revision.title()));
+		document.add(new StoredField("stored", revision.stored().toEpochMilli()));
+		String language = revision.locale().getLanguage();
+		document.add(new TextField(field("title", language), revision.title(), Store.NO));
+		String content = field("content", language), emphasis = field("emphasis", language);
+		var text = new Field(content, MarkdownTokenStream.plainText(markdown), CONTENT_TYPE);
+		text.setTokenStream(new MarkdownTokenStream(markdown, analyzer, content, node -> true));
+		document.add(text);
+		/* Headings and emphasized text a second time, to rank matches in them higher */
+		document.add(new TextField(emphasis, new MarkdownTokenStream(markdown, analyzer, emphasis, SearchIndex::emphasized)));
+		return document;
+	}
+
+	/* Each language has its own fields, so term statistics and analysis aren't shared between languages */
+	private static String field(String name, String language) {
+		return name + "." + language;
 	}
 
-	public void index(long id, Locale locale, String title, String markdown) throws IOException {
-		indexer.addDocument(List.of(
-			new StoredField("id", id),
-			new StoredField("lang", locale.toLanguageTag()),
-			new TextField("title", title, Store.NO),
-			new TextField("content", markdown, Store.NO)
-		));
+	/** Analyzes fields named by {@link #field(String, String)} for their language **/
+	private static final class LanguageAnalyzer extends DelegatingAnalyzerWrapper {
+		private final Analyzer cjk = new CJKAnalyzer(), other = new StandardAnalyzer();
+		private final Map<String, Analyzer> languages = Map.of(
+			"en", new EnglishAnalyzer(),
+			"es", new SpanishAnalyzer(),
+			"ru", new RussianAnalyzer(),
+			"zh", cjk,
+			"ja", cjk,
+			"ko", cjk
+		);
+
+		/* The wrapper reuses components the way each language analyzer does, one per thread for all of its fields,
+		   and only falls back to this strategy otherwise */
+		LanguageAnalyzer() {
+			super(PER_FIELD_REUSE_STRATEGY);
+		}
+
+		@Override
+		protected Analyzer getWrappedAnalyzer(String fieldName) {
+			return forLanguage(fieldName.substring(fieldName.lastIndexOf('.') + 1));
+		}
+
+		Analyzer forLanguage(String language) {
+			return languages.getOrDefault(language, other);
+		}
+
+		@Override
+		public void close() {
+			languages.values().forEach(Analyzer::close);
+			other.close();
+			super.close();
+		}
+	}
+
+	private static boolean emphasized(Node node) {
+		for(var n = node.getParent(); n != null; n = n.getParent()) {
+			if(n instanceof Heading || n instanceof Emphasis || n instanceof StrongEmphasis) {
+				return true;
+			}
+		}
+		return false;
 	}
 }
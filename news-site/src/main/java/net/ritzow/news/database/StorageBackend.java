@@ -0,0 +1,76 @@
+package net.ritzow.news.database;
+
+import io.permazen.kv.KVDatabase;
+import io.permazen.kv.mvstore.MVStoreAtomicKVStore;
+import io.permazen.kv.mvstore.MVStoreKVDatabase;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.OffHeapStore;
+
+/** Key/value store used by {@link ContentManager}. Every backend stores the same Permazen schema. **/
+@FunctionalInterface
+public interface StorageBackend {
+
+	/** Create and start the key/value database **/
+	KVDatabase start();
+
+	/** Called after {@link ContentManager} commits a write transaction **/
+	default void committed() {}
+
+	/** Called after the key/value database has been stopped **/
+	default void stopped() {}
+
+	/** Statistics for the metrics page, if the backend keeps any **/
+	default Optional<Record> metrics() {
+		return Optional.empty();
+	}
+	
+	/** Where to keep the search index, or empty to keep it in memory and rebuild it on every start **/
+	default Optional<Path> searchDirectory() {
+		return Optional.empty();
+	}
+
+	/** Append-only array files in {@code directory}, merged by periodic compaction **/
+	static StorageBackend arrayStore(Path directory) {
+		return arrayStore(directory, ArrayStorage.Compaction.DEFAULT);
+	}
+
+	static StorageBackend arrayStore(Path directory, ArrayStorage.Compaction compaction) {
+		return new ArrayStorage(directory, compaction);
+	}
+
+	/** Copy-on-write B-tree stored in a single {@code file} **/
+	static StorageBackend mvStoreFile(Path file) {
+		return new StorageBackend() {
+			@Override
+			public KVDatabase start() {
+				return mvStore(new MVStore.Builder().fileName(file.toString()));
+			}
+
+			@Override
+			public Optional<Path> searchDirectory() {
+				return Optional.of(file.resolveSibling(file.getFileName() + ".search"));
+			}
+		};
+	}
+
+	/** MVStore held outside the Java heap, contents are lost on shutdown **/
+	static StorageBackend mvStoreOffHeap() {
+		return () -> mvStore(new MVStore.Builder().fileStore(new OffHeapStore()));
+	}
+
+	/** MVStore held on the Java heap, contents are lost on shutdown. For tests and benchmarks. **/
+	static StorageBackend memory() {
+		return () -> mvStore(new MVStore.Builder());
+	}
+
+	private static KVDatabase mvStore(MVStore.Builder builder) {
+		var kvstore = new MVStoreAtomicKVStore();
+		kvstore.setBuilder(builder);
+		var db = new MVStoreKVDatabase();
+		db.setKVStore(kvstore);
+		db.start();
+		return db;
+	}
+}
@@ -0,0 +1,112 @@
+package net.ritzow.news.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import net.ritzow.news.database.SearchIndex.Suggestion;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Completes article titles, with one in-memory suggester per language. Only the search indexing thread
+ * updates suggestions, and a language becomes visible to lookups once its first titles are refreshed.
+ **/
+final class TitleSuggestions implements Closeable {
+
+	/* Shortest prefix completed with edge n-grams, shorter prefixes are slower to complete */
+	private static final int MIN_PREFIX_CHARS = 2;
+
+	private final Function<String, Analyzer> analyzers;
+	private final Map<String, Suggester> languages;
+	/* Created since the last refresh, only accessed by the indexing thread */
+	private final Map<String, Suggester> created;
+
+	TitleSuggestions(Function<String, Analyzer> analyzers) {
+		this.analyzers = analyzers;
+		this.languages = new ConcurrentHashMap<>();
+		this.created = new HashMap<>();
+	}
+
+	/** Suggest the current title of article {@code id} in {@code locale}, newer weights first **/
+	void put(long id, Locale locale, String title, String urlname, long weight) throws IOException {
+		String language = locale.getLanguage();
+		var suggester = languages.get(language);
+		if(suggester == null) {
+			suggester = created.get(language);
+			if(suggester == null) {
+				suggester = new Suggester(analyzers.apply(language));
+				created.put(language, suggester);
+			}
+		}
+		suggester.put(locale.toLanguageTag() + "/" + id, title, urlname, weight);
+	}
+
+	/** Make suggestions added since the last refresh visible **/
+	void refresh() throws IOException {
+		for(var suggester : languages.values()) {
+			suggester.refresh();
+		}
+		for(var entry : created.entrySet()) {
+			entry.getValue().refresh();
+			languages.put(entry.getKey(), entry.getValue());
+		}
+		created.clear();
+	}
+
+	/** Titles containing words starting with {@code prefix}, in the languages of {@code locales} in order **/
+	List<Suggestion> lookup(String prefix, List<Locale> locales, int limit) throws IOException {
+		/* The same article can have the same title in several languages */
+		Map<String, Suggestion> suggestions = new LinkedHashMap<>();
+		for(Locale locale : locales) {
+			var suggester = languages.get(locale.getLanguage());
+			if(suggester == null) {
+				continue;
+			}
+			for(var result : suggester.lookup(prefix, limit, true, false)) {
+				String urlname = result.payload.utf8ToString();
+				suggestions.putIfAbsent(urlname, new Suggestion(result.key.toString(), urlname));
+				if(suggestions.size() == limit) {
+					return List.copyOf(suggestions.values());
+				}
+			}
+		}
+		return List.copyOf(suggestions.values());
+	}
+
+	@Override
+	public void close() throws IOException {
+		for(var suggester : languages.values()) {
+			suggester.close();
+		}
+		for(var suggester : created.values()) {
+			suggester.close();
+		}
+	}
+
+	private static final class Suggester extends AnalyzingInfixSuggester {
+		Suggester(Analyzer analyzer) throws IOException {
+			super(new ByteBuffersDirectory(), analyzer, analyzer, MIN_PREFIX_CHARS, false);
+		}
+
+		/* update() replaces by title text, so articles with the same title would replace each other.
+		   Instead each entry has its article and locale as a context, which lookups without contexts ignore. */
+		void put(String key, String title, String urlname, long weight) throws IOException {
+			var context = new BytesRef(key);
+			/* The writer is created by the first add */
+			if(writer != null) {
+				writer.deleteDocuments(new Term(CONTEXTS_FIELD_NAME, context));
+			}
+			add(new BytesRef(title), Set.of(context), weight, new BytesRef(urlname));
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package net.ritzow.news.database.model;
 
+import io.permazen.JObject;
 import io.permazen.annotation.JCompositeIndex;
 import io.permazen.annotation.JField;
 import io.permazen.annotation.PermazenType;
@@ -7,11 +8,14 @@ import java.time.Instant;
 import java.util.Locale;
 
 @PermazenType
-@JCompositeIndex(name = "recent", fields = {"locale", "publishTime"})
-public abstract class NewsContent {
+/* "latest" marks the current revision of an article per locale, maintained by ContentManager.newArticle
+   and set on revisions from older stores by ContentManager.upgradeRevisions */
+/* Storage IDs come from index names, and older stores have a (locale, publishTime) index named "recent" */
+@JCompositeIndex(name = "timeline", fields = {"locale", "latest", "publishTime"})
+@JCompositeIndex(name = "current", fields = {"locale", "latest", "article"})
+public abstract class NewsContent implements JObject {
 	public abstract NewsArticle getArticle();
 	public abstract void setArticle(NewsArticle article);
-	@JField(indexed = true)
 	public abstract Locale getLocale();
 	public abstract void setLocale(Locale locale);
 	public abstract String getTitle();
@@ -22,4 +26,8 @@ public abstract class NewsContent {
 	public abstract void setLatest(boolean latest);
 	public abstract Instant getPublishTime();
 	public abstract void setPublishTime(Instant publishTime);
+	/* When the revision was written, which differs from publishTime for imported revisions */
+	@JField(indexed = true)
+	public abstract Instant getStoredTime();
+	public abstract void setStoredTime(Instant storedTime);
 }
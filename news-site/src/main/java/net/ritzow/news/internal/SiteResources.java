@@ -1,30 +1,35 @@
 package net.ritzow.news.internal;
 
-import net.ritzow.news.NewsSite;
 import net.ritzow.news.OpenSearch;
 import net.ritzow.news.response.ContentSource;
-import net.ritzow.news.response.NamedResourceConsumer;
 
 import static net.ritzow.news.ResponseUtil.contentPath;
 
+/** Resources named by content hash, which every site serves from its own static memory **/
 public class SiteResources {
 
-	public static final NamedResourceConsumer<NewsSite> 
-		RES_GLOBAL_CSS = NamedResourceConsumer.ofHashed(ContentSource.ofModuleResource("/css/global.css", "text/css"));
-	public static final NamedResourceConsumer<NewsSite> RES_ICON = NamedResourceConsumer.ofHashed(ContentSource.ofModuleResource("/image/icon.svg", "image/svg+xml"));
-	public static final NamedResourceConsumer<NewsSite> RES_FONT = NamedResourceConsumer.ofHashed(ContentSource.ofModuleResource("/font/OpenSans-Regular.ttf", "font/ttf"));
-	public static final NamedResourceConsumer<NewsSite>
-		RES_FONT_FACE = NamedResourceConsumer.ofHashed(
-			ContentSource.ofString("""
+	public static final ContentSource 
+		RES_GLOBAL_CSS = ContentSource.ofModuleResource("/css/global.css", "text/css");
+	public static final ContentSource RES_ICON = ContentSource.ofModuleResource("/image/icon.svg", "image/svg+xml");
+	public static final ContentSource RES_FONT = ContentSource.ofModuleResource("/font/OpenSans-Regular.ttf", "font/ttf");
+	
+	/* Hashed once, since pages link to them on every request */
+	public static final String 
+		GLOBAL_CSS_PATH = contentPath(RES_GLOBAL_CSS),
+		ICON_PATH = contentPath(RES_ICON),
+		FONT_PATH = contentPath(RES_FONT);
+	
+	public static final ContentSource
+		RES_FONT_FACE = ContentSource.ofString("""
 				@font-face {
 					font-family: "Open Sans";
 					src: url("URLHERE") format("truetype");
 					font-display: swap;
 				}
-				""".replace("URLHERE", contentPath(RES_FONT)),
+				""".replace("URLHERE", FONT_PATH),
 				"text/css"
-			)
-		);
+			);
+	public static final String FONT_FACE_PATH = contentPath(RES_FONT_FACE);
 	public static final ContentSource 
 			RES_OPENSEARCH = ContentSource.ofString(OpenSearch.generateOpensearchXml(), "application/opensearchdescription+xml");
 }
@@ -20,6 +20,8 @@ import net.ritzow.news.component.LangSelectComponent;
 import net.ritzow.news.content.QR;
 import net.ritzow.news.database.ContentManager.Article;
 import net.ritzow.news.database.ContentManager.Comment;
+import net.ritzow.news.database.ContentManager.Comments;
+import net.ritzow.news.database.ContentManager.Cursor;
 import net.ritzow.news.response.CachingImmutableRequestConsumer;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
@@ -35,6 +37,10 @@ import static net.ritzow.news.PageTemplate.*;
 
 public class ArticlePage {
 	private static final Logger LOG = LoggerFactory.getLogger(ArticlePage.class);
+	
+	/** Number of comments shown at a time below an article **/
+	private static final int COMMENTS_PAGE_SIZE = 50;
+	private static final String COMMENTS_PARAM = "comments";
 
 	public static void articlePageProcessor(Request request, NewsSite site, Iterator<String> path) {
 		switch(HttpMethod.fromString(request.getMethod())) {
@@ -50,7 +56,6 @@ public class ArticlePage {
 				}
 				
 				String urlname = name.orElseThrow();
-				List<Locale> supported = site.cm.getArticleLocales(urlname);
 				
 				if(path.hasNext()) {
 					
@@ -78,25 +83,32 @@ public class ArticlePage {
 					return;
 				}
 				
-				if(supported.isEmpty()) {
+				Optional<Article<EncodedHtml>> article = site.cm.getLatestArticle(urlname, HttpUser.localesForUser(request), site.articles);
+				
+				if(article.isEmpty()) {
 					doNoSuchArticle(request, site, mainLocale, urlname);
 					return;
 				}
 				
-				Locale articleLocale = HttpUser.bestLocale(request, supported);
-				Optional<Article<MarkdownContent>> article = site.cm.getLatestArticle(urlname, articleLocale, MarkdownContent::new);
+				String commentsPage = request.getParameter(COMMENTS_PARAM);
+				Optional<Cursor> commentsCursor = commentsPage == null ? Optional.empty() : Cursor.parse(commentsPage);
+				/* Query before choosing the status, so a forged cursor is a missing page */
+				Optional<Comments> comments = commentsPage != null && commentsCursor.isEmpty() ? Optional.empty() : 
+					site.cm.listComments(urlname, commentsCursor, COMMENTS_PAGE_SIZE);
 				
-				if(article.isEmpty()) {
-					doNoSuchArticle(request, site, mainLocale, urlname);
+				if(comments.isEmpty()) {
+					doDecoratedPage(HttpStatus.NOT_FOUND_404, request, site, mainLocale, "No such page",
+						p("No such page " + NewsSite.prettyUrl(request))
+					);
 					return;
 				}
 				
 				//TODO create a "share" button that pops-up a selectable area with user-select: all;
 				doDecoratedPage(HttpStatus.OK_200, request, site, mainLocale, article.orElseThrow().title(),
 					each(
-						generateArticlePage(articleLocale, mainLocale, article.orElseThrow(), urlname),
+						generateArticlePage(article.orElseThrow().locale(), mainLocale, article.orElseThrow(), urlname),
 						HttpUser.getExistingSession(request).flatMap(SessionData::user).map(ArticlePage::newCommentBox).orElse(null),
-						eachStreamed(site.cm.listCommentsNewestFirst(urlname).stream().map(comment -> commentBox(mainLocale, comment)))
+						comments(mainLocale, urlname, comments.orElseThrow())
 					)
 				);
 			}
@@ -132,8 +144,9 @@ public class ArticlePage {
 			}
 			
 			String urlname = path.next();
-			return request.getHttpURI().getPathQuery() + "#" + 
-				commentIdStr(site.cm.newComment(urlname, username, Instant.now(), (String)(values.apply(NEW_COMMENT_CONTENT_NAME).orElseThrow())).orElseThrow());
+			/* The new comment is first, so leave any ?comments= page */
+			return request.getHttpURI().getPath() + "#" + 
+				commentIdStr(site.cm.newComment(urlname, username, Instant.now(), (String)(values.apply(NEW_COMMENT_CONTENT_NAME).orElseThrow())).join().orElseThrow());
 		}
 		return request.getHttpURI().getPathQuery();
 	}
@@ -156,6 +169,19 @@ public class ArticlePage {
 		);
 	}
 	
+	private static DomContent comments(Locale pageLocale, String urlname, Comments comments) {
+		return each(
+			each(comments.comments(), comment -> commentBox(pageLocale, comment)),
+			comments.next().map(next -> moreCommentsLink(urlname, next)).orElse(null)
+		);
+	}
+	
+	private static DomContent moreCommentsLink(String urlname, Cursor next) {
+		return a().withClasses("comment-box", "foreground", "page-link")
+			.withHref("/article/" + urlname + "?" + COMMENTS_PARAM + "=" + next)
+			.with(translated("more-comments"));
+	}
+	
 	private static DomContent commentBox(Locale pageLocale, Comment comment) {
 		return div().withId(commentIdStr(comment.id())).withClasses("comment-box", "foreground").with(
 			span(
@@ -168,7 +194,7 @@ public class ArticlePage {
 		);
 	}
 	
-	public static DomContent generateArticlePage(Locale articleLocale, Locale mainLocale, Article<MarkdownContent> article, String urlname) {
+	public static DomContent generateArticlePage(Locale articleLocale, Locale mainLocale, Article<? extends DomContent> article, String urlname) {
 		return main().withClasses("main-box", "foreground").withLang(articleLocale.toLanguageTag()).with(
 			article(
 				h1(article.title()).withClass("title-article"),
@@ -14,7 +14,6 @@ import org.eclipse.jetty.server.Request;
 import static j2html.TagCreator.a;
 import static j2html.TagCreator.p;
 import static net.ritzow.news.PageTemplate.context;
-import static net.ritzow.news.ResponseUtil.contentPath;
 import static net.ritzow.news.ResponseUtil.doGetHtmlStreamed;
 
 public class ExceptionPage {
@@ -24,10 +23,11 @@ public class ExceptionPage {
 		doGetHtmlStreamed(request, HttpStatus.INTERNAL_SERVER_ERROR_500, List.of(),
 			context(request, site.translator, Map.of(),
 				CommonComponents.page("Error", 
-					contentPath(SiteResources.RES_ICON),
+					SiteResources.ICON_PATH,
 					"/opensearch",
-					contentPath(SiteResources.RES_GLOBAL_CSS),
+					SiteResources.GLOBAL_CSS_PATH,
 					Locale.forLanguageTag("en-US"),
+					false,
 					CommonComponents.headerlessContent(
 						p("Sorry, there was an unexpected error!"),
 						a("Go home").withHref("/")
@@ -106,7 +106,7 @@ public class Login {
 		site.cm.newAccount(
 			username,
 			password
-		);
+		).join();
 		
 		var session = HttpUser.session(request);
 		session.user(username);
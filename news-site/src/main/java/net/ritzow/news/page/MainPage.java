@@ -1,16 +1,16 @@
 package net.ritzow.news.page;
 
 import j2html.tags.DomContent;
-import java.text.Collator;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.Optional;
 import net.ritzow.news.Forms;
 import net.ritzow.news.Forms.FormField;
 import net.ritzow.news.Forms.FormWidget;
 import net.ritzow.news.NewsSite;
 import net.ritzow.news.component.LangSelectComponent;
-import net.ritzow.news.database.ContentManager;
+import net.ritzow.news.database.ContentManager.Cursor;
+import net.ritzow.news.database.ContentManager.RecentArticles;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.server.Request;
@@ -28,6 +28,10 @@ public class MainPage {
 		FormField.required("login-action", Forms::stringReader)
 	);
 	
+	/** Number of articles listed per page of the front page **/
+	private static final int PAGE_SIZE = 20;
+	private static final String PAGE_PARAM = "page";
+	
 	public static void mainPageGenerator(Request request, NewsSite site, Iterator<String> path) {
 		switch(HttpMethod.fromString(request.getMethod())) {
 			case GET, HEAD -> {
@@ -40,8 +44,22 @@ public class MainPage {
 				}
 				
 				Locale bestLocale = NewsSite.pageLocale(request, site);
+				String page = request.getParameter(PAGE_PARAM);
+				Optional<Cursor> cursor = page == null ? Optional.empty() : Cursor.parse(page);
+				/* Query before choosing the status, so a forged cursor is a missing page */
+				Optional<RecentArticles> recent = page != null && cursor.isEmpty() ? Optional.empty() : 
+					site.cm.getRecentArticlesForLocale(bestLocale, cursor, PAGE_SIZE);
+				
+				if(recent.isEmpty()) {
+					doDecoratedPage(HttpStatus.NOT_FOUND_404, request, site, bestLocale,
+						"No such page",
+						p("No such page " + NewsSite.prettyUrl(request))
+					);
+					return;
+				}
+				
 				doDecoratedPage(HttpStatus.OK_200, request, site, bestLocale, NewsSite.websiteTitle(),
-					generateArticlesList(bestLocale, site)
+					generateArticlesList(bestLocale, recent.orElseThrow())
 				);
 			}
 			
@@ -56,13 +74,17 @@ public class MainPage {
 		}
 	}
 
-	public static DomContent generateArticlesList(Locale bestLocale, NewsSite site) {
+	public static DomContent generateArticlesList(Locale bestLocale, RecentArticles recent) {
 		return div().withClasses("main-box", "foreground").with(
 			h1(translated("greeting")).withClass("title"),
-			dynamic(state -> eachStreamed(
-				site.cm.getRecentArticlesForLocale(bestLocale)
-					.map(article3 -> articleBox(article3, bestLocale))
-			))
+			each(recent.articles(), article3 -> articleBox(article3, bestLocale)),
+			recent.next().map(MainPage::olderArticlesLink).orElse(null)
 		);
 	}
+	
+	private static DomContent olderArticlesLink(Cursor next) {
+		return a().withClasses("foreground", "article-box", "page-link")
+			.withHref("/?" + PAGE_PARAM + "=" + next)
+			.with(translated("older"));
+	}
 }
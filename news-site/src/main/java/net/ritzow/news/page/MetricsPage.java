@@ -0,0 +1,44 @@
+package net.ritzow.news.page;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import net.ritzow.news.NewsSite;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+
+import static net.ritzow.news.ResponseUtil.skipInput;
+
+public class MetricsPage {
+	/** Plain text dump of internal statistics, one component per line, only for clients on the server's machine **/
+	public static void metricsPage(Request request, NewsSite site, Iterator<String> path) throws IOException {
+		/* Hide the page from remote clients instead of refusing, so it looks like any other missing path */
+		if(path.hasNext() || !isLocal(request)) {
+			ErrorPages.doGeneric404(request, site, path);
+			return;
+		}
+		
+		skipInput(request);
+		StringBuilder text = new StringBuilder();
+		for(Object metrics : site.metrics()) {
+			text.append(metrics).append('\n');
+		}
+		byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+		
+		Response response = request.getResponse();
+		response.setStatus(HttpStatus.OK_200);
+		response.setContentType("text/plain; charset=utf-8");
+		response.setContentLength(body.length);
+		response.setHeader(HttpHeader.CACHE_CONTROL, "no-store");
+		response.getHttpOutput().write(body);
+		request.setHandled(true);
+	}
+	
+	private static boolean isLocal(Request request) {
+		InetSocketAddress remote = request.getRemoteInetSocketAddress();
+		return remote != null && remote.getAddress() != null && remote.getAddress().isLoopbackAddress();
+	}
+}
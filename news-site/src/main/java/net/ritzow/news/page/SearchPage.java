@@ -2,44 +2,76 @@ package net.ritzow.news.page;
 
 import j2html.tags.DomContent;
 import java.io.IOException;
-import java.io.Reader;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
-import java.util.stream.Stream;
+import java.util.Optional;
 import net.ritzow.news.HttpUser;
 import net.ritzow.news.NewsSite;
 import net.ritzow.news.component.LangSelectComponent;
-import org.commonmark.node.Node;
-import org.commonmark.node.Text;
-import org.commonmark.parser.Parser;
+import net.ritzow.news.database.SearchIndex.After;
+import net.ritzow.news.database.SearchIndex.Suggestion;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.ajax.JSON;
 
 import static j2html.TagCreator.*;
 import static java.util.Map.entry;
 import static net.ritzow.news.Forms.doFormResponse;
 import static net.ritzow.news.PageTemplate.doDecoratedPage;
-import static net.ritzow.news.PageTemplate.eachStreamed;
+import static net.ritzow.news.PageTemplate.translated;
+import static net.ritzow.news.ResponseUtil.skipInput;
 import static net.ritzow.news.page.MainPage.LOGIN_FORM;
 
 public class SearchPage {
+	/** Number of results per page **/
+	private static final int RESULTS = 10;
+	private static final String AFTER_PARAM = "after";
+	
+	/** Most languages searched at once, each adds clauses to the query **/
+	private static final int SEARCH_LANGUAGES = 4;
+	
+	/** Number of completions returned by the suggestions endpoint **/
+	private static final int SUGGESTIONS = 8;
+	private static final JSON JSON = new JSON();
+	
 	public static void searchPage(Request request, NewsSite site, Iterator<String> path) throws IOException {
 		if(path.hasNext()) {
-			throw new RuntimeException(path.next());
+			if(path.next().equals("suggest") && !path.hasNext()) {
+				doSuggestions(request, site);
+			} else {
+				ErrorPages.doGeneric404(request, site, path);
+			}
+			return;
 		}
 		
 		switch(HttpMethod.fromString(request.getMethod())) {
 			case GET -> {
 				//TODO handle standard forms
-				String query = request.getParameterMap().get("q")[0];
+				String query = Objects.requireNonNullElse(request.getParameter("q"), "");
 				var locale = HttpUser.bestLocale(request, site.cm.getSupportedLocales());
+				String afterParam = request.getParameter(AFTER_PARAM);
+				Optional<After> after = afterParam == null ? Optional.empty() : After.parse(afterParam);
+				
+				if(afterParam != null && after.isEmpty()) {
+					doDecoratedPage(HttpStatus.NOT_FOUND_404, request, site, locale,
+						"No such page",
+						p("No such page " + NewsSite.prettyUrl(request))
+					);
+					return;
+				}
 
 				doDecoratedPage(HttpStatus.OK_200, request, site, locale,
 					"Search \"" + query + "\"",
 					main().withClasses("main-box", "foreground")
-						.with(eachStreamed(content(site, query, locale)))
+						.with(content(request, site, query, locale, after))
 				);	
 			}
 			
@@ -52,36 +84,69 @@ public class SearchPage {
 		}
 	}
 
-	private static Stream<DomContent> content(NewsSite site, String query, Locale locale) throws IOException {
-		return site.cm.searcher().search(query, locale)
-			.map(site.cm.searchLookup())
-			.map(article -> div().withClasses("foreground").with(
-				h2(article.title()),
-				p().withText(firstSentence(article.content())))
-			);
+	/** OpenSearch suggestions: the query, completions, descriptions and URLs **/
+	private static void doSuggestions(Request request, NewsSite site) throws IOException {
+		skipInput(request);
+		String query = Objects.requireNonNullElse(request.getParameter("q"), "");
+		var locale = HttpUser.bestLocale(request, site.cm.getSupportedLocales());
+		var suggestions = site.cm.suggest(query, searchLocales(request, site, locale), SUGGESTIONS);
+		byte[] body = JSON.toJSON(new Object[] {
+			query,
+			suggestions.stream().map(Suggestion::title).toArray(),
+			suggestions.stream().map(suggestion -> "").toArray(),
+			suggestions.stream().map(suggestion -> "/article/" + suggestion.urlname()).toArray()
+		}).getBytes(StandardCharsets.UTF_8);
+		
+		Response response = request.getResponse();
+		response.setStatus(HttpStatus.OK_200);
+		response.setContentType("application/x-suggestions+json");
+		response.setContentLength(body.length);
+		/* Depends on the user's languages */
+		response.setHeader(HttpHeader.CACHE_CONTROL, "private, max-age=60");
+		response.getHttpOutput().write(body);
+		request.setHandled(true);
 	}
 	
-	private static String firstSentence(Reader reader) {
-		try {
-			var texts = Parser.builder()
-				.build()
-				.parseReader(reader);
-			return Objects.requireNonNullElse(firstText(texts), "");
-		} catch(IOException e) {
-			throw new RuntimeException(e);
+	/* Search the user's languages that have articles in order, then the page language */
+	private static List<Locale> searchLocales(Request request, NewsSite site, Locale pageLocale) {
+		var languages = site.cm.getSupportedLocales().stream().map(Locale::getLanguage).toList();
+		List<Locale> locales = new ArrayList<>(SEARCH_LANGUAGES);
+		for(var locale : HttpUser.localesForUser(request)) {
+			if(locales.size() == SEARCH_LANGUAGES - 1) {
+				break;
+			}
+			if(languages.contains(locale.getLanguage()) && !hasLanguage(locales, locale)) {
+				locales.add(locale);
+			}
 		}
+		if(!hasLanguage(locales, pageLocale)) {
+			locales.add(pageLocale);
+		}
+		return locales;
 	}
 	
-	private static String firstText(Node node) {
-		for(var n = node; n != null; n = node.getNext()) {
-			var text = firstText(n.getFirstChild());
-			if(text != null) {
-				return text;
-			}
-			if(n instanceof Text t) {
-				return t.getLiteral();
-			}
+	private static boolean hasLanguage(List<Locale> locales, Locale locale) {
+		return locales.stream().anyMatch(l -> l.getLanguage().equals(locale.getLanguage()));
+	}
+	
+	private static DomContent content(Request request, NewsSite site, String query, Locale locale, Optional<After> after) throws IOException {
+		var results = site.cm.search(query, searchLocales(request, site, locale), after, RESULTS);
+		if(results.hits().isEmpty()) {
+			return p("No results for \"" + query + "\"");
 		}
-		return null;
+		return each(
+			each(results.hits(), hit -> div().withClasses("foreground").withLang(hit.locale().toLanguageTag()).with(
+				h2(a(hit.title()).withHref("/article/" + hit.urlname())),
+				/* Snippets are escaped by the index */
+				p(rawHtml(hit.snippet()))
+			)),
+			results.next().map(next -> moreResultsLink(query, next)).orElse(null)
+		);
+	}
+	
+	private static DomContent moreResultsLink(String query, After next) {
+		return a().withClasses("foreground", "page-link")
+			.withHref("/search?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8) + "&" + AFTER_PARAM + "=" + next)
+			.with(translated("more-results"));
 	}
 }
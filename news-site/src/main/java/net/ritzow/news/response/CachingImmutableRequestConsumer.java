@@ -2,32 +2,76 @@ package net.ritzow.news.response;
 
 import java.io.IOException;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import net.ritzow.news.ResourceUtil;
+import net.ritzow.news.ResponseUtil;
 import net.ritzow.news.ResponseUtil.ContextRequestConsumer;
 import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.InclusiveByteRange;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
 
 /* TODO make a similar one that streams from inputstream */
+/**
+ * Serves content that never changes, with the content hash as its ETag for conditional requests,
+ * and single byte ranges of the chosen encoding for resumed downloads.
+ **/
 public class CachingImmutableRequestConsumer<T> implements ContextRequestConsumer<T> {
 	private final ContentSource src;
-	private SoftReference<byte[]> data;
+	private volatile String hash;
+	/* Strongly referenced once loaded if resident, so it is never reloaded */
+	private volatile Precompressed resident;
+	private volatile SoftReference<Precompressed> data;
 	private final Duration cacheFor;
+	private final StaticMemory memory;
 
-	public CachingImmutableRequestConsumer(ContentSource src, Duration cacheDuration) {
+	public CachingImmutableRequestConsumer(ContentSource src, Duration cacheDuration, StaticMemory memory) {
 		this.src = src;
+		this.memory = memory;
 		this.data = new SoftReference<>(null);
 		this.cacheFor = cacheDuration;
 	}
 
-	public byte[] load() throws IOException {
-		byte[] data = this.data.get();
-		if(data == null) {
-			this.data = new SoftReference<>(data = src.load());
+	/** The content hash, used as the ETag and by {@link NamedResourceConsumer} as the name **/
+	public String hash() {
+		String hash = this.hash;
+		if(hash == null) {
+			this.hash = hash = ResourceUtil.bytesToString(src.hash());
 		}
-		return data;
+		return hash;
+	}
+
+	private Precompressed variants() throws IOException {
+		Precompressed loaded = loaded();
+		if(loaded != null) {
+			return loaded;
+		}
+		/* Load once, since each load reserves StaticMemory that is never released */
+		synchronized(this) {
+			loaded = loaded();
+			if(loaded == null) {
+				loaded = Precompressed.of(src, memory);
+				if(loaded.resident()) {
+					resident = loaded;
+				} else {
+					data = new SoftReference<>(loaded);
+				}
+			}
+			return loaded;
+		}
+	}
+	
+	private Precompressed loaded() {
+		Precompressed loaded = resident;
+		return loaded != null ? loaded : data.get();
 	}
 
 	@Override
@@ -37,14 +81,78 @@ public class CachingImmutableRequestConsumer<T> implements ContextRequestConsume
 		}
 
 		try {
-			byte[] bytes = load();
-			doResponse(request.getResponse(), bytes, cacheFor, src.mimeType());
+			var variant = variants().select(request);
+			Response response = request.getResponse();
+			/* Each encoding is cached separately */
+			response.getHttpFields().addCSV(HttpHeader.VARY, HttpHeader.ACCEPT_ENCODING.asString());
+			/* Strong ETags must differ between encodings, prefixed since GzipHandler removes "--gzip" suffixes */
+			String etag = "\"" + (variant.encoding() == null ? "" : variant.encoding() + "-") + hash() + "\"";
+			response.setHeader(HttpHeader.ETAG, etag);
+			
+			if(matches(request.getHttpFields().getCSV(HttpHeader.IF_NONE_MATCH, true), etag, false)) {
+				setCacheHeaders(response, cacheFor);
+				response.setStatus(HttpStatus.NOT_MODIFIED_304);
+				request.setHandled(true);
+				return;
+			}
+			
+			if(variant.encoding() != null) {
+				/* GzipHandler leaves responses that are already encoded alone */
+				response.setHeader(HttpHeader.CONTENT_ENCODING, variant.encoding());
+			}
+			response.setHeader(HttpHeader.ACCEPT_RANGES, "bytes");
+			
+			ByteBuffer content = variant.content();
+			var range = request.getHttpFields().getValuesList(HttpHeader.RANGE);
+			/* If-Range with a date never matches since there is no Last-Modified */
+			String ifRange = request.getHttpFields().get(HttpHeader.IF_RANGE);
+			/* A malformed Range is ignored, as if the request had none */
+			if(range.size() == 1 && wellFormed(range.get(0)) && HttpMethod.GET.is(request.getMethod()) 
+					&& (ifRange == null || matches(List.of(ifRange), etag, true))) {
+				var ranges = InclusiveByteRange.satisfiableRanges(Collections.enumeration(range), content.remaining());
+				/* Only null for a well-formed Range if none of its ranges are satisfiable */
+				if(ranges == null) {
+					response.setHeader(HttpHeader.CONTENT_RANGE, InclusiveByteRange.to416HeaderRangeString(content.remaining()));
+					ResponseUtil.doEmptyResponse(request, HttpStatus.RANGE_NOT_SATISFIABLE_416);
+					return;
+				}
+				/* Multiple ranges are sent as the full content rather than multipart */
+				if(ranges.size() == 1) {
+					var bytes = ranges.get(0);
+					response.setHeader(HttpHeader.CONTENT_RANGE, bytes.toHeaderRangeString(content.remaining()));
+					setCacheHeaders(response, cacheFor);
+					response.setContentType(src.mimeType());
+					response.setContentLength(Math.toIntExact(bytes.getSize()));
+					response.setStatus(HttpStatus.PARTIAL_CONTENT_206);
+					response.getHttpOutput().sendContent(content
+						.position(Math.toIntExact(bytes.getFirst()))
+						.limit(Math.toIntExact(bytes.getLast() + 1)));
+					request.setHandled(true);
+					return;
+				}
+			}
+			
+			doResponse(response, content, cacheFor, src.mimeType());
 		} catch(IOException e) {
 			throw new RuntimeException("Could not load resource " + src.toString(), e);
 		}
 	}
 
 	public static void doResponse(Response response, byte[] bytes, Duration cacheFor, String contentType) throws IOException {
+		doResponse(response, ByteBuffer.wrap(bytes), cacheFor, contentType);
+	}
+	
+	/** Sends {@code content} as is, direct buffers are written to the connection without a heap copy **/
+	public static void doResponse(Response response, ByteBuffer content, Duration cacheFor, String contentType) throws IOException {
+		setCacheHeaders(response, cacheFor);
+		response.setContentType(contentType);
+		response.setContentLength(content.remaining());
+		response.setStatus(HttpStatus.OK_200);
+		/* Unlike write, doesn't aggregate into the response buffer first */
+		response.getHttpOutput().sendContent(content);
+	}
+	
+	private static void setCacheHeaders(Response response, Duration cacheFor) {
 		response.getHttpFields().addCSV(HttpHeader.CACHE_CONTROL,
 			"max-age=" + cacheFor.toSeconds(),
 			"public",
@@ -52,10 +160,36 @@ public class CachingImmutableRequestConsumer<T> implements ContextRequestConsume
 			//TODO this isn't used here (since we're immutable), but it could maybe be used somewhere else
 			//"stale-while-revalidate=" + Duration.ofSeconds(30).toSeconds()
 		);
-		response.setContentType(contentType);
-		response.setContentLength(bytes.length);
-		response.setStatus(HttpStatus.OK_200);
-		response.getHttpOutput().write(bytes);
-		response.getHttpOutput().flush();
+	}
+	
+	/* Digits are limited so positions fit in a long */
+	private static final Pattern BYTE_RANGE = Pattern.compile("(\\d{1,18})-(\\d{1,18})?|-\\d{1,18}");
+	
+	/** Whether {@code range} is a "bytes" Range header, with each last position at least its first **/
+	private static boolean wellFormed(String range) {
+		if(!range.startsWith("bytes=")) {
+			return false;
+		}
+		for(String spec : range.substring("bytes=".length()).split(",", -1)) {
+			Matcher matcher = BYTE_RANGE.matcher(spec.strip());
+			if(!matcher.matches() || matcher.group(2) != null 
+					&& Long.parseLong(matcher.group(2)) < Long.parseLong(matcher.group(1))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** 
+	 * Whether any of {@code tags} is {@code etag}, using strong comparison for If-Range and 
+	 * weak comparison for If-None-Match.
+	 **/
+	private static boolean matches(List<String> tags, String etag, boolean strong) {
+		for(String tag : tags) {
+			if(!strong && (tag.equals("*") || tag.startsWith("W/") && tag.substring(2).equals(etag)) || tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
 	}
 }
@@ -2,22 +2,21 @@ package net.ritzow.news.response;
 
 import java.time.Duration;
 import java.util.Map.Entry;
-import net.ritzow.news.ResourceUtil;
 import net.ritzow.news.ResponseUtil.ContextRequestConsumer;
 
 public interface NamedResourceConsumer<T> extends Entry<String, ContextRequestConsumer<T>> {
-	static <U> NamedResourceConsumer<U> ofHashed(ContentSource src) {
+	/** Serve {@code src} named by its content hash, keeping it in {@code memory} if it fits **/
+	static <U> NamedResourceConsumer<U> ofHashed(ContentSource src, StaticMemory memory) {
 		return new NamedResourceConsumer<U>() {
-			private final ContextRequestConsumer<U> handler;
-			private String name;
+			private final CachingImmutableRequestConsumer<U> handler;
 
 			{
-				handler = new CachingImmutableRequestConsumer<>(src, Duration.ofDays(7));
+				handler = new CachingImmutableRequestConsumer<>(src, Duration.ofDays(7), memory);
 			}
 			
 			@Override
 			public String getKey() {
-				return name == null ? name = ResourceUtil.bytesToString(src.hash()) : name;
+				return handler.hash();
 			}
 
 			@Override
@@ -0,0 +1,79 @@
+package net.ritzow.news.response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Request;
+
+/**
+ * A resource's bytes with each {@code Content-Encoding} that makes it smaller, compressed once so
+ * responses choose a variant instead of compressing on every request. Variants are kept in
+ * {@link StaticMemory} if they fit, and on the heap otherwise.
+ **/
+public final class Precompressed {
+
+	/** @param encoding {@code Content-Encoding} of {@code content}, or null if not encoded **/
+	public record Variant(String encoding, ByteBuffer content) {
+		/** Read-only, with its own position so it can be written by each response **/
+		@Override
+		public ByteBuffer content() {
+			return content.duplicate();
+		}
+	}
+
+	private final Variant identity;
+	/* Smallest first, all smaller than identity, only gzip for now */
+	private final List<Variant> encoded;
+	private final boolean resident;
+
+	private Precompressed(Variant identity, List<Variant> encoded, boolean resident) {
+		this.identity = identity;
+		this.encoded = encoded;
+		this.resident = resident;
+	}
+
+	/** Compress {@code src} with gzip, which is only used if it makes the content smaller **/
+	public static Precompressed of(ContentSource src, StaticMemory memory) throws IOException {
+		byte[] identity = src.load();
+		byte[] gzip = gzip(identity);
+		List<byte[]> encoded = gzip.length < identity.length ? List.of(gzip) : List.of();
+		
+		boolean resident = memory.reserve(identity.length + encoded.stream().mapToLong(bytes -> bytes.length).sum());
+		Function<byte[], ByteBuffer> store = resident ? StaticMemory::direct : bytes -> ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+		return new Precompressed(
+			new Variant(null, store.apply(identity)),
+			encoded.stream().map(bytes -> new Variant("gzip", store.apply(bytes))).toList(),
+			resident
+		);
+	}
+
+	/** Whether the variants are in {@link StaticMemory}, rather than on the heap **/
+	public boolean resident() {
+		return resident;
+	}
+
+	/** The smallest variant {@code request} accepts in its {@code Accept-Encoding} **/
+	public Variant select(Request request) {
+		List<String> accepted = request.getHttpFields().getQualityCSV(HttpHeader.ACCEPT_ENCODING);
+		for(var variant : encoded) {
+			if(accepted.contains(variant.encoding()) || accepted.contains("*")) {
+				return variant;
+			}
+		}
+		return identity;
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		var bytes = new ByteArrayOutputStream(data.length / 2);
+		/* Compressed once, so use the best compression */
+		try(var out = new GZIPOutputStream(bytes) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+			out.write(data);
+		}
+		return bytes.toByteArray();
+	}
+}
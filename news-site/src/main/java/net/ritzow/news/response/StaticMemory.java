@@ -0,0 +1,49 @@
+package net.ritzow.news.response;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap memory for the static resources a site serves, which stay loaded for the life of its server. Resources that
+ * don't fit within the limit are kept on the heap instead, where the garbage collector can reclaim them.
+ **/
+public final class StaticMemory {
+
+	/** @param rejected Resources that didn't fit within the limit **/
+	public record Metrics(long residentBytes, long maxBytes, long rejected) {}
+
+	private final AtomicLong resident;
+	private final AtomicLong rejected;
+	private final long maxBytes;
+
+	public StaticMemory(long maxBytes) {
+		if(maxBytes < 0) {
+			throw new IllegalArgumentException("Negative static memory limit " + maxBytes);
+		}
+		this.resident = new AtomicLong();
+		this.rejected = new AtomicLong();
+		this.maxBytes = maxBytes;
+	}
+
+	public Metrics metrics() {
+		return new Metrics(resident.get(), maxBytes, rejected.get());
+	}
+
+	/** Reserve {@code bytes} for buffers from {@link #direct(byte[])} that are never released **/
+	public boolean reserve(long bytes) {
+		long current;
+		do {
+			current = resident.get();
+			if(current + bytes > maxBytes) {
+				rejected.incrementAndGet();
+				return false;
+			}
+		} while(!resident.compareAndSet(current, current + bytes));
+		return true;
+	}
+
+	/** A read-only direct copy of {@code data}, which Jetty writes to connections without copying **/
+	public static ByteBuffer direct(byte[] data) {
+		return ByteBuffer.allocateDirect(data.length).put(data).flip().asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,34 @@
+package net.ritzow.news.run;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import net.ritzow.news.ArticleImport;
+import net.ritzow.news.database.ContentManager;
+import net.ritzow.news.database.ContentManager.GroupCommit;
+import net.ritzow.news.database.StorageBackend;
+
+/** Usage: {@code ImportArticles <database directory> <markdown directory | JSON lines file>...} **/
+public class ImportArticles {
+	public static void main(String... args) throws Exception {
+		if(args.length < 2) {
+			System.err.println("Usage: ImportArticles <database directory> <markdown directory | JSON lines file>...");
+			System.exit(1);
+		}
+		
+		int batchSize = Integer.getInteger("batchSize", ArticleImport.DEFAULT_BATCH_SIZE);
+		var cm = new ContentManager(StorageBackend.arrayStore(Path.of(args[0])), GroupCommit.DEFAULT);
+		try {
+			for(int i = 1; i < args.length; i++) {
+				Path source = Path.of(args[i]);
+				long start = System.nanoTime();
+				long count = Files.isDirectory(source) ? ArticleImport.importDirectory(cm, source, batchSize)
+					: ArticleImport.importJsonLines(cm, source, batchSize);
+				System.out.println("Imported " + count + " revisions from " + source + " in " 
+					+ Duration.ofNanos(System.nanoTime() - start).toMillis() + " ms");
+			}
+		} finally {
+			cm.shutdown();
+		}
+	}
+}
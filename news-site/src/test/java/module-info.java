@@ -1,5 +1,7 @@
 module net.ritzow.news.test {
 	requires org.bouncycastle.provider;
 	requires net.ritzow.news;
+	requires org.eclipse.jetty.io;
 	requires org.junit.jupiter.api;
+	requires java.net.http;
 }
\ No newline at end of file
@@ -0,0 +1,312 @@
+package net.ritzow.news.test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import net.ritzow.news.database.ArrayStorage;
+import net.ritzow.news.database.ArrayStorage.Compaction;
+import net.ritzow.news.database.ContentManager;
+import net.ritzow.news.database.ContentManager.Article3;
+import net.ritzow.news.database.ContentManager.Comment;
+import net.ritzow.news.database.ContentManager.Cursor;
+import net.ritzow.news.database.ContentManager.GroupCommit;
+import net.ritzow.news.database.ContentManager.ImportedArticle;
+import net.ritzow.news.database.SearchIndex.After;
+import net.ritzow.news.database.SearchIndex.Hit;
+import net.ritzow.news.database.SearchIndex.Suggestion;
+import net.ritzow.news.database.StorageBackend;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentManagerTest {
+
+	private static final Locale LOCALE = ContentManager.SUPPORTED_LOCALES.get(0);
+	private static final Instant START = Instant.parse("2022-01-01T00:00:00Z");
+
+	@Test
+	void articlePages(@TempDir Path temp) throws Exception {
+		var cm = new ContentManager(StorageBackend.arrayStore(temp), GroupCommit.DEFAULT);
+		try {
+			cm.importArticles(IntStream.range(0, 5)
+				.mapToObj(i -> new ImportedArticle("article-" + i, LOCALE, "Article " + i, "Content " + i, START.plusSeconds(i)))
+				.toList());
+
+			var first = cm.getRecentArticlesForLocale(LOCALE, Optional.empty(), 2).orElseThrow();
+			assertEquals(List.of("article-4", "article-3"), urlnames(first.articles()));
+
+			/* Cursors round trip through URLs */
+			var cursor = Cursor.parse(first.next().orElseThrow().toString());
+			var second = cm.getRecentArticlesForLocale(LOCALE, cursor, 2).orElseThrow();
+			assertEquals(List.of("article-2", "article-1"), urlnames(second.articles()));
+
+			var last = cm.getRecentArticlesForLocale(LOCALE, second.next(), 2).orElseThrow();
+			assertEquals(List.of("article-0"), urlnames(last.articles()));
+			assertTrue(last.next().isEmpty());
+		} finally {
+			cm.shutdown();
+		}
+	}
+
+	@Test
+	void articleLocales(@TempDir Path temp) throws Exception {
+		var cm = new ContentManager(StorageBackend.arrayStore(temp), GroupCommit.DEFAULT);
+		try {
+			Locale spanish = Locale.forLanguageTag("es");
+			cm.newArticle("news", LOCALE, "English", "Content");
+			cm.newArticle("news", spanish, "Spanish", "Contenido");
+
+			/* Requested locales are searched in order, and match other countries of a language */
+			assertEquals(spanish, locale(cm, List.of(Locale.forLanguageTag("fr"), Locale.forLanguageTag("es-MX"), LOCALE)));
+			assertEquals(LOCALE, locale(cm, List.of(Locale.forLanguageTag("en-GB"), spanish)));
+
+			/* Otherwise the locale it was first published in */
+			assertEquals(LOCALE, locale(cm, List.of(Locale.forLanguageTag("ru"))));
+			assertEquals(LOCALE, locale(cm, List.of()));
+			assertEquals("Spanish", cm.getLatestArticle("news", List.of(spanish), reader -> null).orElseThrow().title());
+			assertTrue(cm.getLatestArticle("missing", List.of(LOCALE), reader -> null).isEmpty());
+		} finally {
+			cm.shutdown();
+		}
+	}
+
+	private static Locale locale(ContentManager cm, List<Locale> locales) {
+		return cm.getLatestArticle("news", locales, reader -> null).orElseThrow().locale();
+	}
+
+	@Test
+	void forgedCursors(@TempDir Path temp) throws Exception {
+		var cm = new ContentManager(StorageBackend.arrayStore(temp), GroupCommit.DEFAULT);
+		try {
+			cm.importArticles(List.of(new ImportedArticle("article", LOCALE, "Article", "Content", START)));
+			long account = cm.newAccount("user", "password".getBytes(StandardCharsets.UTF_8)).join();
+			long comment = cm.newComment("article", "user", START, "Comment").join().orElseThrow();
+
+			/* An object of another type, and an object that doesn't exist */
+			for(long id : new long[] {account, comment, account + 1}) {
+				var cursor = Optional.of(new Cursor(START, id));
+				assertTrue(cm.getRecentArticlesForLocale(LOCALE, cursor, 10).isEmpty(), "article cursor " + id);
+			}
+			for(long id : new long[] {account, account + 1}) {
+				var cursor = Optional.of(new Cursor(START, id));
+				assertTrue(cm.listComments("article", cursor, 10).isEmpty(), "comment cursor " + id);
+			}
+
+			/* Not an object ID at all */
+			assertTrue(Cursor.parse("1.0.article").isEmpty());
+
+			var comments = cm.listComments("article", Optional.empty(), 10).orElseThrow();
+			assertEquals(List.of(comment), comments.comments().stream().map(Comment::id).toList());
+			var after = cm.listComments("article", Optional.of(new Cursor(START, comment)), 10).orElseThrow();
+			assertTrue(after.comments().isEmpty());
+		} finally {
+			cm.shutdown();
+		}
+	}
+
+	@Test
+	void groupCommit(@TempDir Path temp) throws Exception {
+		/* Long enough that concurrent writes share batches */
+		var settings = new GroupCommit(Duration.ofMillis(20), 8);
+		var cm = new ContentManager(StorageBackend.arrayStore(temp), settings);
+		try {
+			List<CompletableFuture<Long>> accounts = IntStream.range(0, 40).parallel()
+				.mapToObj(i -> cm.newAccount("user-" + i, password(i)))
+				.toList();
+			/* A write with no effect completes in the same batches */
+			var missing = cm.newComment("no-such-article", "user-0", START, "Comment");
+			assertEquals(40, accounts.stream().map(CompletableFuture::join).distinct().count());
+			assertTrue(missing.join().isEmpty());
+		} finally {
+			cm.shutdown();
+		}
+
+		/* Committed writes are durable, and later writes are rejected once shut down */
+		assertThrows(IllegalStateException.class, () -> cm.newAccount("late", password(0)));
+		var reopened = new ContentManager(StorageBackend.arrayStore(temp), settings);
+		try {
+			for(int i = 0; i < 40; i++) {
+				assertTrue(reopened.authenticateLogin("user-" + i, password(i)), "user-" + i);
+			}
+			assertFalse(reopened.authenticateLogin("late", password(0)));
+		} finally {
+			reopened.shutdown();
+		}
+	}
+
+	@Test
+	void idleCompaction(@TempDir Path temp) throws Exception {
+		var defaults = Compaction.DEFAULT;
+		var settings = new Compaction(defaults.lowWater(), defaults.highWater(), defaults.maxDelay(), Duration.ofMillis(50));
+		var cm = new ContentManager(StorageBackend.arrayStore(temp, settings), GroupCommit.DEFAULT);
+		try {
+			cm.newAccount("user", password(0)).join();
+			/* Only the compaction is counted, not the idle check that started it */
+			long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+			while(storageMetrics(cm).compactions() == 0) {
+				assertTrue(System.nanoTime() < deadline, "Not compacted");
+				Thread.sleep(10);
+			}
+			Thread.sleep(200);
+			assertEquals(1, storageMetrics(cm).compactions());
+			assertTrue(storageMetrics(cm).arrayBytes() > 0);
+		} finally {
+			cm.shutdown();
+		}
+	}
+
+	@Test
+	void searchPages(@TempDir Path temp) throws Exception {
+		var cm = new ContentManager(StorageBackend.arrayStore(temp), GroupCommit.DEFAULT);
+		try {
+			var spanish = Locale.forLanguageTag("es");
+			cm.importArticles(IntStream.range(0, 5).boxed()
+				.flatMap(i -> Stream.of(
+					new ImportedArticle("article-" + i, LOCALE, "Article " + i, "Rocket launch " + i, START.plusSeconds(i)),
+					new ImportedArticle("article-" + i, spanish, "Artículo " + i, "Rocket lanzamiento " + i, START.plusSeconds(i))
+				))
+				.toList());
+			awaitIndexed(cm, 10);
+
+			/* Each article matches in both languages, but is listed once across all pages */
+			List<Hit> hits = new ArrayList<>();
+			Optional<After> after = Optional.empty();
+			do {
+				var page = cm.search("rocket", List.of(LOCALE, spanish), after.map(a -> After.parse(a.toString()).orElseThrow()), 2);
+				assertTrue(page.hits().size() <= 2);
+				hits.addAll(page.hits());
+				after = page.next();
+			} while(after.isPresent());
+			assertEquals(5, hits.stream().map(Hit::id).distinct().count());
+			assertEquals(5, hits.size());
+			/* Matches in the first locale are preferred */
+			assertTrue(hits.stream().allMatch(hit -> hit.locale().equals(LOCALE)));
+		} finally {
+			cm.shutdown();
+		}
+	}
+
+	@Test
+	void escapedSnippets(@TempDir Path temp) throws Exception {
+		var cm = new ContentManager(StorageBackend.arrayStore(temp), GroupCommit.DEFAULT);
+		try {
+			cm.importArticles(List.of(new ImportedArticle("article", LOCALE, "Article", 
+				"A rocket launch with `<script>alert(1)</script>` & more", START)));
+			awaitIndexed(cm, 1);
+			var hit = cm.search("rocket", List.of(LOCALE), Optional.empty(), 10).hits().get(0);
+			assertEquals("article", hit.urlname());
+			assertTrue(hit.snippet().contains("<mark>rocket</mark>"), hit.snippet());
+			assertTrue(hit.snippet().contains("&lt;script&gt;"), hit.snippet());
+			assertFalse(hit.snippet().contains("<script"), hit.snippet());
+		} finally {
+			cm.shutdown();
+		}
+	}
+
+	@Test
+	void suggestionsFollowTitles(@TempDir Path temp) throws Exception {
+		var cm = new ContentManager(StorageBackend.arrayStore(temp), GroupCommit.DEFAULT);
+		try {
+			cm.importArticles(List.of(
+				new ImportedArticle("launch", LOCALE, "Rocket launch", "Content", START),
+				new ImportedArticle("landing", LOCALE, "Rocket landing", "Content", START.plusSeconds(1))
+			));
+			awaitIndexed(cm, 2);
+			/* Newer articles first */
+			assertEquals(List.of(new Suggestion("Rocket landing", "landing"), new Suggestion("Rocket launch", "launch")),
+				cm.suggest("roc", List.of(LOCALE), 10));
+
+			/* A new revision replaces the title instead of adding another */
+			cm.newArticle("launch", LOCALE, "Satellite orbit", "Content");
+			awaitIndexed(cm, 3);
+			assertEquals(List.of(new Suggestion("Rocket landing", "landing")), cm.suggest("roc", List.of(LOCALE), 10));
+			assertEquals(List.of(new Suggestion("Satellite orbit", "launch")), cm.suggest("sat", List.of(LOCALE), 10));
+			assertEquals(List.of(), cm.suggest("roc", List.of(Locale.forLanguageTag("ru")), 10));
+		} finally {
+			cm.shutdown();
+		}
+	}
+
+	@Test
+	void searchCacheInvalidation(@TempDir Path temp) throws Exception {
+		var cm = new ContentManager(StorageBackend.arrayStore(temp), GroupCommit.DEFAULT);
+		try {
+			cm.importArticles(List.of(new ImportedArticle("first", LOCALE, "First", "Rocket launch", START)));
+			awaitIndexed(cm, 1);
+			var results = cm.search("rocket", List.of(LOCALE), Optional.empty(), 10);
+			long hits = cm.searchCacheMetrics().hits();
+			assertEquals(results, cm.search("rocket", List.of(LOCALE), Optional.empty(), 10));
+			assertEquals(hits + 1, cm.searchCacheMetrics().hits());
+
+			/* Cached results are dropped once a newly published article is searchable */
+			long invalidations = cm.searchCacheMetrics().invalidations();
+			cm.newArticle("second", LOCALE, "Second", "Rocket landing");
+			awaitIndexed(cm, 2);
+			var updated = cm.search("rocket", List.of(LOCALE), Optional.empty(), 10);
+			assertEquals(Set.of("first", "second"), updated.hits().stream().map(Hit::urlname).collect(Collectors.toSet()));
+			assertTrue(cm.searchCacheMetrics().invalidations() > invalidations);
+		} finally {
+			cm.shutdown();
+		}
+	}
+
+	@Test
+	void reopenedIndex(@TempDir Path temp) throws Exception {
+		var cm = new ContentManager(StorageBackend.arrayStore(temp), GroupCommit.DEFAULT);
+		try {
+			cm.importArticles(List.of(new ImportedArticle("first", LOCALE, "First", "Rocket launch", START)));
+			awaitIndexed(cm, 1);
+		} finally {
+			cm.shutdown();
+		}
+
+		/* The committed index is kept, and only revisions stored since its last commit are indexed again */
+		var reopened = new ContentManager(StorageBackend.arrayStore(temp), GroupCommit.DEFAULT);
+		try {
+			awaitIndexed(reopened, 1);
+			assertEquals(List.of("first"), urlnames(reopened, "rocket"));
+			assertEquals(List.of(new Suggestion("First", "first")), reopened.suggest("fir", List.of(LOCALE), 10));
+			reopened.newArticle("second", LOCALE, "Second", "Rocket landing");
+			awaitIndexed(reopened, 2);
+			assertEquals(Set.of("first", "second"), Set.copyOf(urlnames(reopened, "rocket")));
+		} finally {
+			reopened.shutdown();
+		}
+	}
+
+	private static List<String> urlnames(ContentManager cm, String query) throws IOException {
+		return cm.search(query, List.of(LOCALE), Optional.empty(), 10).hits().stream().map(Hit::urlname).toList();
+	}
+
+	private static ArrayStorage.Metrics storageMetrics(ContentManager cm) {
+		return (ArrayStorage.Metrics)cm.storageMetrics().orElseThrow();
+	}
+
+	private static void awaitIndexed(ContentManager cm, long revisions) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		while(cm.searchMetrics().indexed() < revisions) {
+			assertTrue(System.nanoTime() < deadline, "Revisions not searchable");
+			Thread.sleep(10);
+		}
+	}
+
+	private static byte[] password(int i) {
+		return ("password-" + i).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static List<String> urlnames(List<Article3> articles) {
+		return articles.stream().map(Article3::urlname).toList();
+	}
+}
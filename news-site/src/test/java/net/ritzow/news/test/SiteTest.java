@@ -0,0 +1,265 @@
+package net.ritzow.news.test;
+
+import java.math.BigInteger;
+import java.net.CookieManager;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import net.ritzow.news.Certs;
+import net.ritzow.news.JettySetup;
+import net.ritzow.news.NewsSite;
+import net.ritzow.news.database.ContentManager.Cursor;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Requests to a new site on the loopback address for each test, on ports the system picks **/
+public class SiteTest {
+
+	private static InetAddress address;
+	private static KeyStore keyStore;
+	private static String password;
+	private static SSLContext tls;
+
+	private static final Pattern HEADER = Pattern.compile("<nav class=\"header foreground\">.*?</nav>", Pattern.DOTALL);
+
+	private NewsSite site;
+	private HttpClient client;
+
+	@BeforeAll
+	static void certificate() throws Exception {
+		var random = new SecureRandom();
+		address = InetAddress.getByName("127.0.0.1");
+		password = new BigInteger(512, random).toString(Character.MAX_RADIX);
+		System.setProperty("title", "RedNet");
+		keyStore = Certs.selfSigned(new GeneralNames(new GeneralName(GeneralName.iPAddress, new DEROctetString(address.getAddress()))),
+			"junit-test", password.toCharArray(), random);
+
+		/* Trust only the site's own certificate */
+		var trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trust.init(keyStore);
+		tls = SSLContext.getInstance("TLS");
+		tls.init(null, trust.getTrustManagers(), random);
+	}
+
+	@BeforeEach
+	void start(@TempDir Path temp) throws Exception {
+		site = NewsSite.builder()
+			.setRequireSni(false)
+			.setKeyStore(keyStore)
+			.setKeyStorePassword(password)
+			.setPeers(Set.of(address.getHostAddress()))
+			.setBind(address)
+			.setPorts(JettySetup.Ports.ANY)
+			.setDatabaseDir(temp)
+			.start();
+		client = HttpClient.newBuilder().sslContext(tls).build();
+	}
+
+	@AfterEach
+	void stop() throws Exception {
+		site.stop();
+	}
+
+	@Test
+	void plaintextRedirects() throws Exception {
+		var response = client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + site.httpPort() + "/search?q=news")).build(),
+			BodyHandlers.discarding());
+		assertEquals(302, response.statusCode());
+		assertEquals("https://127.0.0.1:" + site.httpsPort() + "/search?q=news", response.headers().firstValue("Location").orElseThrow());
+	}
+
+	@Test
+	void anonymousPagesRevalidate() throws Exception {
+		var first = get("/");
+		assertEquals(200, first.statusCode());
+		assertEquals("no-cache", first.headers().firstValue("Cache-Control").orElseThrow());
+		String etag = first.headers().firstValue("ETag").orElseThrow();
+
+		long hits = site.pages.metrics().hits();
+		var cached = get("/");
+		assertEquals(etag, cached.headers().firstValue("ETag").orElseThrow());
+		assertArrayEquals(first.body(), cached.body());
+		assertEquals(hits + 1, site.pages.metrics().hits());
+
+		var notModified = send(request("/").header("If-None-Match", etag));
+		assertEquals(304, notModified.statusCode());
+		assertEquals(0, notModified.body().length);
+
+		/* Each encoding has its own ETag */
+		var gzip = send(request("/").header("Accept-Encoding", "gzip"));
+		assertEquals("gzip", gzip.headers().firstValue("Content-Encoding").orElseThrow());
+		assertNotEquals(etag, gzip.headers().firstValue("ETag").orElseThrow());
+
+		/* New content shows up immediately instead of after the cache age */
+		site.cm.newArticle("page-cache-test", Locale.US, "Page cache test", "Content");
+		var changed = get("/");
+		assertEquals(200, changed.statusCode());
+		assertNotEquals(etag, changed.headers().firstValue("ETag").orElseThrow());
+		assertTrue(new String(changed.body(), StandardCharsets.UTF_8).contains("Page cache test"));
+	}
+
+	@Test
+	void cachedPagesLeaveOutRenderTime() throws Exception {
+		assertFalse(new String(get("/").body(), StandardCharsets.UTF_8).contains("Server Time"));
+		var user = signup("footer");
+		var page = user.send(request("/").build(), BodyHandlers.ofString());
+		assertTrue(page.body().contains("Server Time"));
+	}
+
+	@Test
+	void forgedPageCursor() throws Exception {
+		long account = site.cm.newAccount("page-cursor-test", new byte[] {1}).join();
+		var forged = new Cursor(Instant.now(), account);
+		assertEquals(404, get("/?page=" + forged).statusCode());
+		assertEquals(404, get("/?page=junk").statusCode());
+	}
+
+	@Test
+	void commentCursors() throws Exception {
+		site.cm.newArticle("comment-test", Locale.US, "Comment test", "Content");
+		long account = site.cm.newAccount("comment-cursor-test", new byte[] {1}).join();
+		assertEquals(404, get("/article/comment-test?comments=" + new Cursor(Instant.now(), account)).statusCode());
+
+		site.cm.newAccount("commenter", new byte[] {1}).join();
+		long comment = site.cm.newComment("comment-test", "commenter", Instant.now(), "First").join().orElseThrow();
+		String page = "/article/comment-test?comments=" + new Cursor(Instant.now(), comment);
+		assertEquals(200, get(page).statusCode());
+
+		/* Posting from an older page of comments goes back to the first page, where the new comment is */
+		var user = signup("poster");
+		var posted = user.send(post(page, Map.of("comment-content", "Second", "comment-submit", "new-comment")), 
+			BodyHandlers.discarding());
+		assertEquals(303, posted.statusCode());
+		var location = URI.create(posted.headers().firstValue("Location").orElseThrow());
+		assertEquals("/article/comment-test", location.getPath());
+		assertNull(location.getQuery());
+		assertTrue(location.getFragment().startsWith("comment-"));
+		assertTrue(new String(get(location.getPath()).body(), StandardCharsets.UTF_8).contains("id=\"" + location.getFragment() + "\""));
+	}
+
+	@Test
+	void headerFragments() throws Exception {
+		String english = header(send(request("/").header("Accept-Language", "en-US")).body());
+		String spanish = header(send(request("/").header("Accept-Language", "es")).body());
+		assertNotEquals(english, spanish);
+
+		var alice = signup("alice");
+		var bob = signup("bob");
+		String aliceHeader = header(alice.send(request("/").build(), BodyHandlers.ofByteArray()).body());
+		String bobHeader = header(bob.send(request("/").build(), BodyHandlers.ofByteArray()).body());
+		assertTrue(aliceHeader.contains("alice"));
+		assertTrue(bobHeader.contains("bob"));
+		assertNotEquals(aliceHeader, bobHeader);
+
+		/* Pages with a session aren't cached, but their header is */
+		long hits = site.fragments.metrics().hits();
+		assertEquals(aliceHeader, header(alice.send(request("/").build(), BodyHandlers.ofByteArray()).body()));
+		assertEquals(hits + 1, site.fragments.metrics().hits());
+	}
+
+	@Test
+	void resourceRanges() throws Exception {
+		Matcher link = Pattern.compile("/content/[^\"]+").matcher(new String(get("/").body(), StandardCharsets.UTF_8));
+		assertTrue(link.find());
+		String path = link.group();
+
+		var full = get(path);
+		assertEquals(200, full.statusCode());
+		assertEquals("bytes", full.headers().firstValue("Accept-Ranges").orElseThrow());
+		String etag = full.headers().firstValue("ETag").orElseThrow();
+		byte[] body = full.body();
+		assertTrue(body.length > 10);
+
+		assertEquals(304, send(request(path).header("If-None-Match", etag)).statusCode());
+
+		var first = send(request(path).header("Range", "bytes=0-9"));
+		assertEquals(206, first.statusCode());
+		assertEquals("bytes 0-9/" + body.length, first.headers().firstValue("Content-Range").orElseThrow());
+		assertArrayEquals(Arrays.copyOf(body, 10), first.body());
+
+		var suffix = send(request(path).header("Range", "bytes=-5").header("If-Range", etag));
+		assertEquals(206, suffix.statusCode());
+		assertArrayEquals(Arrays.copyOfRange(body, body.length - 5, body.length), suffix.body());
+
+		var unsatisfiable = send(request(path).header("Range", "bytes=" + body.length + "-"));
+		assertEquals(416, unsatisfiable.statusCode());
+		assertEquals("bytes */" + body.length, unsatisfiable.headers().firstValue("Content-Range").orElseThrow());
+
+		/* Malformed ranges, and ranges of another version, get the whole resource */
+		for(String range : List.of("bytes=junk", "bytes=5-3", "items=0-5", "bytes=0-1,")) {
+			var ignored = send(request(path).header("Range", range));
+			assertEquals(200, ignored.statusCode(), range);
+			assertArrayEquals(body, ignored.body(), range);
+		}
+		var stale = send(request(path).header("Range", "bytes=0-9").header("If-Range", "\"stale\""));
+		assertEquals(200, stale.statusCode());
+		assertArrayEquals(body, stale.body());
+	}
+
+	private HttpRequest.Builder request(String path) {
+		return HttpRequest.newBuilder(URI.create("https://127.0.0.1:" + site.httpsPort() + path));
+	}
+
+	/* A client with the session of a new account */
+	private HttpClient signup(String username) throws Exception {
+		var user = HttpClient.newBuilder().sslContext(tls).cookieHandler(new CookieManager()).build();
+		var signup = user.send(post("/", Map.of("username", username, "password", "password", "login-action", "signup")), 
+			BodyHandlers.discarding());
+		assertEquals(303, signup.statusCode());
+		return user;
+	}
+
+	private static String header(byte[] page) {
+		Matcher header = HEADER.matcher(new String(page, StandardCharsets.UTF_8));
+		assertTrue(header.find());
+		return header.group();
+	}
+
+	/* Forms are always sent as multipart */
+	private HttpRequest post(String path, Map<String, String> fields) {
+		String boundary = "test-boundary";
+		var body = new StringBuilder();
+		fields.forEach((name, value) -> body.append("--").append(boundary).append("\r\n")
+			.append("Content-Disposition: form-data; name=\"").append(name).append("\"\r\n\r\n")
+			.append(value).append("\r\n"));
+		body.append("--").append(boundary).append("--\r\n");
+		return request(path)
+			.header("Content-Type", "multipart/form-data; boundary=" + boundary)
+			.POST(BodyPublishers.ofString(body.toString()))
+			.build();
+	}
+
+	private HttpResponse<byte[]> get(String path) throws Exception {
+		return send(request(path));
+	}
+
+	private HttpResponse<byte[]> send(HttpRequest.Builder request) throws Exception {
+		return client.send(request.build(), BodyHandlers.ofByteArray());
+	}
+}
@@ -0,0 +1,85 @@
+package net.ritzow.news.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import net.ritzow.news.Utf8Output;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Output must match {@link String#getBytes} with UTF-8, including its replacement of unpaired surrogates **/
+public class Utf8OutputTest {
+
+	private static final List<String> TEXT = List.of(
+		"",
+		"plain ASCII <p>text</p>",
+		"été ñ ß Ж",
+		"€ 日本語 ￿",
+		"😀 emoji 🌍",
+		"lone \ud83d high",
+		"lone \ude00 low",
+		"two \ud83d😀 highs",
+		"reversed \ude00\ud83d pair",
+		"high at end \ud83d"
+	);
+
+	@Test
+	void matchesStringEncoding() throws IOException {
+		for(String text : TEXT) {
+			assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), encode(text, 4096), text);
+		}
+	}
+
+	@Test
+	void splitsAcrossBuffers() throws IOException {
+		String text = String.join("", TEXT).repeat(20);
+		byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+		/* Characters and surrogate pairs cross buffer boundaries at every offset */
+		for(int size = 4; size < 40; size++) {
+			assertArrayEquals(expected, encode(text, size), "buffer size " + size);
+		}
+	}
+
+	@Test
+	void appendsOneCharAtATime() throws IOException {
+		String text = String.join("", TEXT);
+		var bytes = new ByteArrayOutputStream();
+		try(var out = new Utf8Output(bytes, new ArrayByteBufferPool(), 7)) {
+			for(int i = 0; i < text.length(); i++) {
+				out.append(text.charAt(i));
+			}
+			out.flush();
+		}
+		assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+	}
+
+	@Test
+	void mixesTextAndBytes() throws IOException {
+		byte[] small = "é€".getBytes(StandardCharsets.UTF_8);
+		byte[] large = "😀".repeat(10).getBytes(StandardCharsets.UTF_8);
+		var bytes = new ByteArrayOutputStream();
+		try(var out = new Utf8Output(bytes, new ArrayByteBufferPool(), 16)) {
+			out.append("abc");
+			out.write(small);
+			out.append("é");
+			/* Larger than the buffer, written past it after what was appended before */
+			out.write(large);
+			out.append("end \ud83d");
+			out.flush();
+		}
+		String expected = "abcé€é" + "😀".repeat(10) + "end \ud83d";
+		assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+	}
+
+	private static byte[] encode(String text, int size) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		try(var out = new Utf8Output(bytes, new ArrayByteBufferPool(), size)) {
+			out.append(text);
+			out.flush();
+		}
+		return bytes.toByteArray();
+	}
+}